@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2002 John Vasileff
+ *
+ * Permission  is  hereby  granted,  free of  charge,  to  any  person
+ * obtaining  a copy  of  this software  and associated  documentation
+ * files   (the  "Software"),   to  deal   in  the   Software  without
+ * restriction, including without limitation  the rights to use, copy,
+ * modify, merge, publish, distribute,  sublicense, and/or sell copies
+ * of the  Software, and  to permit  persons to  whom the  Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The  above copyright  notice and  this permission  notice shall  be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE  SOFTWARE  IS  PROVIDED  "AS   IS",  WITHOUT  WARRANTY  OF  ANY
+ * KIND,  EXPRESS  OR  IMPLIED,  INCLUDING  BUT  NOT  LIMITED  TO  THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES  OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT,  TORT OR OTHERWISE, ARISING FROM, OUT  OF OR IN
+ * CONNECTION WITH  THE SOFTWARE OR THE  USE OR OTHER DEALINGS  IN THE
+ * SOFTWARE.
+ */
+
+package org.anodyneos.jse;
+
+/**
+ *  Upcoming fire times of a schedule, computed ahead of need.  The scheduler
+ *  takes times with <code>next()</code>; <code>refill()</code> tops the
+ *  buffer up and is meant to run on another thread, so the schedule's
+ *  search stays off the scheduler's path.  If the buffer runs dry before a
+ *  refill lands, <code>next()</code> falls back to asking the schedule
+ *  itself.
+ */
+final class FireTimeBuffer {
+
+    private final JseExtendedSchedule schedule;
+    private final long[] times;
+    private int head;
+    private int size;
+
+    /** latest time taken from the schedule, or start - 1 */
+    private long tail;
+    /** true once the schedule has returned NEVER */
+    private boolean ended;
+    /** changed by reset() so a refill started before it is discarded */
+    private int generation;
+    /** true from needsRefill() returning true until the refill finishes */
+    private boolean refilling;
+
+    /** the buffer after this one in a FireTimePrefetcher's queue */
+    FireTimeBuffer nextPending;
+
+    FireTimeBuffer(JseExtendedSchedule schedule, int capacity) {
+        this.schedule = schedule;
+        this.times = new long[Math.max(1, capacity)];
+    }
+
+    JseExtendedSchedule getSchedule() {
+        return schedule;
+    }
+
+    /**
+     *  Empties the buffer and starts over with the first time at or after
+     *  <code>startMillis</code>.
+     */
+    synchronized void reset(long startMillis) {
+        head = 0;
+        size = 0;
+        tail = startMillis - 1;
+        ended = false;
+        generation++;
+    }
+
+    /**
+     *  Returns the next time, or <code>JseExtendedSchedule.NEVER</code>.
+     */
+    synchronized long next() {
+        if (size > 0) {
+            long time = times[head];
+            head = (head + 1) % times.length;
+            size--;
+            return time;
+        } else if (ended) {
+            return JseExtendedSchedule.NEVER;
+        }
+        // a refill has not kept up
+        tail = schedule.getNextTimeoutMillis(tail + 1);
+        if (JseExtendedSchedule.NEVER == tail) {
+            ended = true;
+        }
+        return tail;
+    }
+
+    /**
+     *  Returns true if the buffer is at most half full and no refill is
+     *  under way.  The caller must then arrange for <code>refill()</code> to
+     *  be called.
+     */
+    synchronized boolean needsRefill() {
+        if (refilling || ended || size > times.length / 2) {
+            return false;
+        }
+        refilling = true;
+        return true;
+    }
+
+    /**
+     *  Fills the buffer.  Calls the schedule without holding this buffer's
+     *  monitor.  If the schedule throws, the buffer is left as it was and
+     *  <code>needsRefill()</code> may return true again.
+     */
+    void refill() {
+        int gen;
+        long start;
+        int room;
+        synchronized(this) {
+            gen = generation;
+            start = tail;
+            room = ended ? 0 : times.length - size;
+        }
+        long[] more = null;
+        try {
+            more = room == 0 ? new long[0] : schedule.getNextTimeouts(start + 1, room);
+        } finally {
+            if (null == more) {
+                // the schedule threw; let a later refill try again
+                synchronized(this) {
+                    refilling = false;
+                }
+            }
+        }
+        synchronized(this) {
+            refilling = false;
+            if (gen != generation || start != tail) {
+                // reset or next() moved on meanwhile
+                return;
+            }
+            for (int i = 0; i < more.length && size < times.length; i++) {
+                times[(head + size) % times.length] = more[i];
+                size++;
+                tail = more[i];
+            }
+            if (more.length < room && !ended) {
+                ended = true;
+            }
+        }
+    }
+
+    /**
+     *  Puts just the next time in an empty buffer, leaving the rest to
+     *  <code>refill()</code>.
+     */
+    void fillFirst() {
+        long start;
+        synchronized(this) {
+            if (size > 0 || ended) {
+                return;
+            }
+            start = tail;
+        }
+        long time = schedule.getNextTimeoutMillis(start + 1);
+        synchronized(this) {
+            if (size > 0 || start != tail) {
+                return;
+            }
+            if (JseExtendedSchedule.NEVER == time) {
+                ended = true;
+            } else {
+                times[head] = time;
+                size = 1;
+                tail = time;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2002 John Vasileff
+ *
+ * Permission  is  hereby  granted,  free of  charge,  to  any  person
+ * obtaining  a copy  of  this software  and associated  documentation
+ * files   (the  "Software"),   to  deal   in  the   Software  without
+ * restriction, including without limitation  the rights to use, copy,
+ * modify, merge, publish, distribute,  sublicense, and/or sell copies
+ * of the  Software, and  to permit  persons to  whom the  Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The  above copyright  notice and  this permission  notice shall  be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE  SOFTWARE  IS  PROVIDED  "AS   IS",  WITHOUT  WARRANTY  OF  ANY
+ * KIND,  EXPRESS  OR  IMPLIED,  INCLUDING  BUT  NOT  LIMITED  TO  THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES  OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT,  TORT OR OTHERWISE, ARISING FROM, OUT  OF OR IN
+ * CONNECTION WITH  THE SOFTWARE OR THE  USE OR OTHER DEALINGS  IN THE
+ * SOFTWARE.
+ */
+
+package org.anodyneos.jse;
+
+import java.util.Date;
+import java.util.Random;
+import org.anodyneos.jse.TestSupport.Every;
+
+import static org.anodyneos.jse.TestSupport.check;
+
+/**
+ *  Checks that a <code>FireTimeBuffer</code> returns exactly the schedule's
+ *  times, whether or not refills keep up, across resets and with a
+ *  <code>FireTimePrefetcher</code> refilling it on another thread.  Also
+ *  checks that <code>fillFirst()</code> asks the schedule for one time only
+ *  and that a refill can be retried after the schedule throws.
+ */
+public class FireTimeBufferTest {
+
+    private static final long PERIOD = 1000;
+
+    public static void main(String[] args) throws InterruptedException {
+        Random random = new Random(args.length > 0 ? Long.parseLong(args[0]) : 1);
+        Every every = new Every(PERIOD, 5000 * PERIOD);
+        JseExtendedSchedule schedule = JseScheduleAdapter.adapt(every);
+
+        // fillFirst
+        FireTimeBuffer times = new FireTimeBuffer(schedule, 8);
+        times.reset(1);
+        every.calls.set(0);
+        times.fillFirst();
+        check(every.calls.get() == 1, "fillFirst asked for " + every.calls.get() + " times");
+        check(times.next() == PERIOD, "wrong first time");
+
+        // a failed refill
+        FireTimeBuffer failing = new FireTimeBuffer(JseScheduleAdapter.adapt(new Every(PERIOD) {
+            private boolean failed;
+
+            @Override
+            public Date getNextTimeout(Date start) {
+                if (!failed) {
+                    failed = true;
+                    throw new IllegalStateException("schedule failed");
+                }
+                return super.getNextTimeout(start);
+            }
+        }), 8);
+        failing.reset(1);
+        check(failing.needsRefill(), "empty buffer needs no refill");
+        try {
+            failing.refill();
+            check(false, "refill hid the schedule's exception");
+        } catch (IllegalStateException e) {
+            check("schedule failed".equals(e.getMessage()), e.getMessage());
+        }
+        check(failing.needsRefill(), "refill not retried after the schedule threw");
+        failing.refill();
+        check(failing.next() == PERIOD, "wrong first time after the retry");
+
+        // refills on this thread, sometimes skipped
+        for (int round = 0; round < 100; round++) {
+            long start = random.nextInt(6000) * PERIOD + random.nextInt((int) PERIOD);
+            times.reset(start);
+            if (random.nextBoolean()) {
+                times.fillFirst();
+            }
+            long expected = (start + PERIOD - 1) / PERIOD * PERIOD;
+            int n = random.nextInt(200);
+            for (int i = 0; i < n; i++) {
+                if (times.needsRefill() && random.nextInt(4) != 0) {
+                    times.refill();
+                }
+                long time = times.next();
+                if (expected > every.end) {
+                    check(JseExtendedSchedule.NEVER == time, "time after the end: " + time);
+                } else {
+                    check(time == expected, "got " + time + " instead of " + expected);
+                    expected += PERIOD;
+                }
+            }
+        }
+
+        // refills on the prefetch thread, with resets racing them
+        FireTimePrefetcher prefetcher = new FireTimePrefetcher("FireTimeBufferTest-prefetch");
+        int taken = 0;
+        for (int round = 0; round < 2000; round++) {
+            long start = random.nextInt(4000) * PERIOD;
+            times.reset(start);
+            times.fillFirst();
+            long expected = start;
+            int n = random.nextInt(50);
+            for (int i = 0; i < n; i++) {
+                long time = times.next();
+                check(time == expected, "got " + time + " instead of " + expected);
+                expected += PERIOD;
+                taken++;
+                if (times.needsRefill()) {
+                    prefetcher.prefetch(times);
+                }
+            }
+        }
+        prefetcher.shutdown();
+
+        System.out.println("Times taken with prefetching: " + taken);
+        System.out.println("OK");
+    }
+}
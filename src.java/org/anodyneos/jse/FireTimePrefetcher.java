@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2002 John Vasileff
+ *
+ * Permission  is  hereby  granted,  free of  charge,  to  any  person
+ * obtaining  a copy  of  this software  and associated  documentation
+ * files   (the  "Software"),   to  deal   in  the   Software  without
+ * restriction, including without limitation  the rights to use, copy,
+ * modify, merge, publish, distribute,  sublicense, and/or sell copies
+ * of the  Software, and  to permit  persons to  whom the  Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The  above copyright  notice and  this permission  notice shall  be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE  SOFTWARE  IS  PROVIDED  "AS   IS",  WITHOUT  WARRANTY  OF  ANY
+ * KIND,  EXPRESS  OR  IMPLIED,  INCLUDING  BUT  NOT  LIMITED  TO  THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES  OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT,  TORT OR OTHERWISE, ARISING FROM, OUT  OF OR IN
+ * CONNECTION WITH  THE SOFTWARE OR THE  USE OR OTHER DEALINGS  IN THE
+ * SOFTWARE.
+ */
+
+package org.anodyneos.jse;
+
+/**
+ *  Thread that refills <code>FireTimeBuffer</code>s handed to it.  Buffers
+ *  wait in a queue linked through the buffers themselves, so handing one
+ *  over allocates nothing; a buffer is never queued twice as
+ *  <code>needsRefill()</code> only returns true again once its refill has
+ *  run.  The thread is started on first use.
+ */
+final class FireTimePrefetcher implements Runnable {
+
+    private final String name;
+    private Thread thread;
+    private FireTimeBuffer head;
+    private FireTimeBuffer tail;
+    private boolean shutdown;
+
+    FireTimePrefetcher(String name) {
+        this.name = name;
+    }
+
+    /**
+     *  Queues <code>times</code> to be refilled.  Ignored once shut down,
+     *  leaving the buffer to fall back to computing times as they are
+     *  taken.
+     */
+    synchronized void prefetch(FireTimeBuffer times) {
+        if (shutdown) {
+            return;
+        }
+        if (null == tail) {
+            head = times;
+            notify();
+        } else {
+            tail.nextPending = times;
+        }
+        tail = times;
+        if (null == thread) {
+            thread = new Thread(this, name);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     *  Stops the thread.  Buffers still queued are not refilled.
+     */
+    synchronized void shutdown() {
+        shutdown = true;
+        head = null;
+        tail = null;
+        notify();
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            FireTimeBuffer times;
+            synchronized(this) {
+                while (null == head && !shutdown) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (shutdown) {
+                    return;
+                }
+                times = head;
+                head = times.nextPending;
+                times.nextPending = null;
+                if (null == head) {
+                    tail = null;
+                }
+            }
+            try {
+                times.refill();
+            } catch (RuntimeException e) {
+                // the buffer asks the schedule itself, which fails there
+            }
+        }
+    }
+
+}
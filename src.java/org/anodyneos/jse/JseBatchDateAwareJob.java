@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2002 John Vasileff
+ *
+ * Permission  is  hereby  granted,  free of  charge,  to  any  person
+ * obtaining  a copy  of  this software  and associated  documentation
+ * files   (the  "Software"),   to  deal   in  the   Software  without
+ * restriction, including without limitation  the rights to use, copy,
+ * modify, merge, publish, distribute,  sublicense, and/or sell copies
+ * of the  Software, and  to permit  persons to  whom the  Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The  above copyright  notice and  this permission  notice shall  be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE  SOFTWARE  IS  PROVIDED  "AS   IS",  WITHOUT  WARRANTY  OF  ANY
+ * KIND,  EXPRESS  OR  IMPLIED,  INCLUDING  BUT  NOT  LIMITED  TO  THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES  OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT,  TORT OR OTHERWISE, ARISING FROM, OUT  OF OR IN
+ * CONNECTION WITH  THE SOFTWARE OR THE  USE OR OTHER DEALINGS  IN THE
+ * SOFTWARE.
+ */
+
+package org.anodyneos.jse;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ *  A <code>JseDateAwareJob</code> that takes all of its pending runs in one
+ *  call.  While a run is waiting to start, further runs are added to it
+ *  rather than queued separately, so a job that has fallen behind catches
+ *  up with a single invocation.  <code>JseTimerService</code> calls only
+ *  <code>run(List)</code>.
+ *
+ *  @see JseTimerService
+ */
+public interface JseBatchDateAwareJob extends JseDateAwareJob {
+    /**
+     *  Method that called when running this job.  Must be thread safe.
+     *
+     *  @param runDates The timestamps of all runs pending when this
+     *  execution started, oldest first.  Never empty.
+     */
+    void run(List<Date> runDates);
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2002 John Vasileff
+ *
+ * Permission  is  hereby  granted,  free of  charge,  to  any  person
+ * obtaining  a copy  of  this software  and associated  documentation
+ * files   (the  "Software"),   to  deal   in  the   Software  without
+ * restriction, including without limitation  the rights to use, copy,
+ * modify, merge, publish, distribute,  sublicense, and/or sell copies
+ * of the  Software, and  to permit  persons to  whom the  Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The  above copyright  notice and  this permission  notice shall  be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE  SOFTWARE  IS  PROVIDED  "AS   IS",  WITHOUT  WARRANTY  OF  ANY
+ * KIND,  EXPRESS  OR  IMPLIED,  INCLUDING  BUT  NOT  LIMITED  TO  THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES  OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT,  TORT OR OTHERWISE, ARISING FROM, OUT  OF OR IN
+ * CONNECTION WITH  THE SOFTWARE OR THE  USE OR OTHER DEALINGS  IN THE
+ * SOFTWARE.
+ */
+
+package org.anodyneos.jse;
+
+/**
+ *  Source of time for <code>JseTimerService</code>.
+ *
+ *  @see JseSystemClock
+ *  @see JseVirtualClock
+ */
+public interface JseClock {
+
+    /** The system clock. */
+    JseClock SYSTEM = new JseSystemClock();
+
+    /**
+     *  Returns the current time in milliseconds since the epoch.
+     */
+    long currentTimeMillis();
+
+    /**
+     *  Called by a scheduler that has nothing to do before
+     *  <code>millis</code>.  A clock that can jump ahead moves to
+     *  <code>millis</code> and returns true, and the scheduler carries on
+     *  without waiting.  Otherwise returns false and the scheduler waits in
+     *  real time.
+     */
+    boolean skipTo(long millis);
+
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2002 John Vasileff
+ *
+ * Permission  is  hereby  granted,  free of  charge,  to  any  person
+ * obtaining  a copy  of  this software  and associated  documentation
+ * files   (the  "Software"),   to  deal   in  the   Software  without
+ * restriction, including without limitation  the rights to use, copy,
+ * modify, merge, publish, distribute,  sublicense, and/or sell copies
+ * of the  Software, and  to permit  persons to  whom the  Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The  above copyright  notice and  this permission  notice shall  be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE  SOFTWARE  IS  PROVIDED  "AS   IS",  WITHOUT  WARRANTY  OF  ANY
+ * KIND,  EXPRESS  OR  IMPLIED,  INCLUDING  BUT  NOT  LIMITED  TO  THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES  OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT,  TORT OR OTHERWISE, ARISING FROM, OUT  OF OR IN
+ * CONNECTION WITH  THE SOFTWARE OR THE  USE OR OTHER DEALINGS  IN THE
+ * SOFTWARE.
+ */
+
+package org.anodyneos.jse;
+
+/**
+ *  A job that keeps its own <code>JseJobCounter</code>.  <code>JseRunner</code>
+ *  counts other jobs in a map under its lock; jobs implementing this
+ *  interface are counted without either, and their counts may be read
+ *  through <code>getJobCounter()</code> without going through the runner.
+ *
+ *  <p>The counter must be the same object for the life of the job.
+ *  <code>runSkipped</code> is called in place of <code>run</code> for each
+ *  run skipped because the counter limits the job's concurrent runs, or
+ *  dropped because the runner's queue is full.</p>
+ *
+ *  @see JseRunner
+ */
+public interface JseCountedJob extends Runnable {
+    /**
+     *  Returns the counter <code>JseRunner</code> keeps for this job.
+     */
+    JseJobCounter getJobCounter();
+
+    /**
+     *  Called by the runner in place of <code>run</code> when a run is
+     *  skipped because the job is at its limit, or dropped because the
+     *  runner's queue is full.  Must not block.
+     */
+    void runSkipped();
+}
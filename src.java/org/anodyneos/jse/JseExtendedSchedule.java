@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2002 John Vasileff
+ *
+ * Permission  is  hereby  granted,  free of  charge,  to  any  person
+ * obtaining  a copy  of  this software  and associated  documentation
+ * files   (the  "Software"),   to  deal   in  the   Software  without
+ * restriction, including without limitation  the rights to use, copy,
+ * modify, merge, publish, distribute,  sublicense, and/or sell copies
+ * of the  Software, and  to permit  persons to  whom the  Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The  above copyright  notice and  this permission  notice shall  be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE  SOFTWARE  IS  PROVIDED  "AS   IS",  WITHOUT  WARRANTY  OF  ANY
+ * KIND,  EXPRESS  OR  IMPLIED,  INCLUDING  BUT  NOT  LIMITED  TO  THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES  OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT,  TORT OR OTHERWISE, ARISING FROM, OUT  OF OR IN
+ * CONNECTION WITH  THE SOFTWARE OR THE  USE OR OTHER DEALINGS  IN THE
+ * SOFTWARE.
+ */
+
+package org.anodyneos.jse;
+
+/**
+ *  A <code>JseSchedule</code> with fire times in milliseconds and settings
+ *  for how <code>JseTimerService</code> runs it.  Optional: the service
+ *  checks for it with <code>instanceof</code>.  A plain
+ *  <code>JseSchedule</code> is run with <code>MISFIRE_FIRE_ALL</code>,
+ *  <code>DEFAULT_MISFIRE_THRESHOLD</code>, no slack, priority 0, no
+ *  deadline and no limit on concurrent runs.
+ */
+public interface JseExtendedSchedule extends JseSchedule {
+
+    /**
+     *  Returned by <code>getNextTimeoutMillis</code> when there is no next
+     *  timeout.
+     */
+    long NEVER = Long.MAX_VALUE;
+
+    /** Misfire policy: every late run fires.  The default. */
+    int MISFIRE_FIRE_ALL = 0;
+
+    /**
+     *  Misfire policy: late runs are coalesced into a single run for the
+     *  current time.
+     */
+    int MISFIRE_FIRE_ONCE_NOW = 1;
+
+    /**
+     *  Misfire policy: late runs are coalesced into a single run for the
+     *  latest of their times.
+     */
+    int MISFIRE_FIRE_LATEST_ONLY = 2;
+
+    /** Misfire policy: late runs do not fire. */
+    int MISFIRE_SKIP_IF_LATE = 3;
+
+    /**
+     *  Milliseconds a run may be late before it is a misfire, unless the
+     *  schedule says otherwise.  Leaves room for the scheduler waking a
+     *  little late.
+     */
+    long DEFAULT_MISFIRE_THRESHOLD = 1000;
+
+    /**
+     *  Same as <code>getNextTimeout</code> but with times as milliseconds
+     *  since the epoch.  Used by <code>JseTimerService</code> and should not
+     *  allocate objects.  May be called from several threads at once, as
+     *  job threads use it to step through a backlog of runs.
+     *
+     *  @return the next timeout at or after <code>startMillis</code>, or
+     *  <code>NEVER</code>.
+     */
+    long getNextTimeoutMillis(long startMillis);
+
+    /**
+     *  Returns up to <code>n</code> consecutive timeouts, the first at or
+     *  after <code>startMillis</code>.  Fewer are returned only if the
+     *  schedule ends.  <code>JseTimerService</code> calls this off the
+     *  scheduler thread to keep a few fire times ready for each timer.
+     */
+    long[] getNextTimeouts(long startMillis, int n);
+
+    /**
+     *  Returns one of the <code>MISFIRE_</code> constants, telling
+     *  <code>JseTimerService</code> what to do with runs that are late by
+     *  more than <code>getMisfireThreshold()</code>, either because the
+     *  scheduler fell behind or because an earlier run is still waiting to
+     *  start.
+     */
+    int getMisfirePolicy();
+
+    /**
+     *  Returns how many milliseconds a run may be late before it is a
+     *  misfire, over and above <code>getSlack()</code>.  Lateness is
+     *  measured when the run is handed to the runner, not when it starts.
+     */
+    long getMisfireThreshold();
+
+    /**
+     *  Returns how many milliseconds a run may start late so that
+     *  <code>JseTimerService</code> can wake once for several timers due
+     *  close together.  0 for none.  A run delayed within its slack is not
+     *  a misfire, and is still given its scheduled time.
+     */
+    long getSlack();
+
+    /**
+     *  Returns the priority of runs of this schedule when the runner orders
+     *  its queue.  Higher priorities run first; 0 is normal.
+     *
+     *  @see JseRunner#setQueueOrder(int)
+     */
+    int getPriority();
+
+    /**
+     *  Returns how many milliseconds after its fire time a run should start,
+     *  used as its deadline when the runner orders its queue by deadline.
+     *
+     *  @see JseRunner#setQueueOrder(int)
+     */
+    long getDeadline();
+
+    /**
+     *  Returns how many runs of this schedule's job may run at once, or -1
+     *  for no limit beyond the runner's.  A run that would exceed it is
+     *  skipped.
+     */
+    int getMaxConcurrent();
+
+}
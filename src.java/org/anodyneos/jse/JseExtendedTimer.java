@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2002 John Vasileff
+ *
+ * Permission  is  hereby  granted,  free of  charge,  to  any  person
+ * obtaining  a copy  of  this software  and associated  documentation
+ * files   (the  "Software"),   to  deal   in  the   Software  without
+ * restriction, including without limitation  the rights to use, copy,
+ * modify, merge, publish, distribute,  sublicense, and/or sell copies
+ * of the  Software, and  to permit  persons to  whom the  Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The  above copyright  notice and  this permission  notice shall  be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE  SOFTWARE  IS  PROVIDED  "AS   IS",  WITHOUT  WARRANTY  OF  ANY
+ * KIND,  EXPRESS  OR  IMPLIED,  INCLUDING  BUT  NOT  LIMITED  TO  THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES  OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT,  TORT OR OTHERWISE, ARISING FROM, OUT  OF OR IN
+ * CONNECTION WITH  THE SOFTWARE OR THE  USE OR OTHER DEALINGS  IN THE
+ * SOFTWARE.
+ */
+
+package org.anodyneos.jse;
+
+/**
+ *  A <code>JseTimer</code> that can also be rescheduled, paused and
+ *  resumed.  Every timer returned by <code>JseTimerService</code> is one;
+ *  cast to reach these methods.
+ */
+public interface JseExtendedTimer extends JseTimer {
+
+    /**
+     *  Replaces this timer's schedule.  The first run under the new schedule
+     *  is its first time at or after now, and its number of iterations
+     *  starts over.  Runs already queued keep their times.
+     */
+    void reschedule(JseSchedule schedule) throws JseTimerExpiredException;
+
+    /**
+     *  Stops this timer from firing until <code>resume</code> is called.  A
+     *  paused timer is taken out of the scheduler entirely.
+     */
+    void pause() throws JseTimerExpiredException;
+
+    /**
+     *  Lets a paused timer fire again.
+     *
+     *  @param skipMissed If true, runs that fell due while paused are
+     *  dropped.  Otherwise they fire at once as a backlog, subject to the
+     *  schedule's misfire policy.
+     */
+    void resume(boolean skipMissed) throws JseTimerExpiredException;
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2002 John Vasileff
+ *
+ * Permission  is  hereby  granted,  free of  charge,  to  any  person
+ * obtaining  a copy  of  this software  and associated  documentation
+ * files   (the  "Software"),   to  deal   in  the   Software  without
+ * restriction, including without limitation  the rights to use, copy,
+ * modify, merge, publish, distribute,  sublicense, and/or sell copies
+ * of the  Software, and  to permit  persons to  whom the  Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The  above copyright  notice and  this permission  notice shall  be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE  SOFTWARE  IS  PROVIDED  "AS   IS",  WITHOUT  WARRANTY  OF  ANY
+ * KIND,  EXPRESS  OR  IMPLIED,  INCLUDING  BUT  NOT  LIMITED  TO  THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES  OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT,  TORT OR OTHERWISE, ARISING FROM, OUT  OF OR IN
+ * CONNECTION WITH  THE SOFTWARE OR THE  USE OR OTHER DEALINGS  IN THE
+ * SOFTWARE.
+ */
+
+package org.anodyneos.jse;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ *  The number of times one job is waiting to run and running in a
+ *  <code>JseRunner</code>.  Counts are plain ints updated atomically, so
+ *  reading or changing them takes no lock and allocates nothing.
+ *
+ *  <p>The counter may also limit how many times the job runs at once.
+ *  When the runner comes to start a run while the job is at its limit, the
+ *  run is skipped rather than held back, so other jobs are not kept
+ *  waiting.</p>
+ *
+ *  @see JseCountedJob
+ */
+public final class JseJobCounter {
+
+    private static final AtomicIntegerFieldUpdater<JseJobCounter> WAITING =
+            AtomicIntegerFieldUpdater.newUpdater(JseJobCounter.class, "waiting");
+    private static final AtomicIntegerFieldUpdater<JseJobCounter> RUNNING =
+            AtomicIntegerFieldUpdater.newUpdater(JseJobCounter.class, "running");
+    private static final AtomicLongFieldUpdater<JseJobCounter> SKIPPED =
+            AtomicLongFieldUpdater.newUpdater(JseJobCounter.class, "skipped");
+
+    private volatile int waiting;
+    private volatile int running;
+    private volatile int maxRunning = -1;
+    private volatile long skipped;
+
+    /**
+     *  Retuns the number of times the job is currently waiting to be run.
+     */
+    public int getWaitingCount() {
+        return waiting;
+    }
+
+    /**
+     *  Retuns the number of times the job is currently running.
+     */
+    public int getRunningCount() {
+        return running;
+    }
+
+    /**
+     *  Retuns the number of times the job is currently queued (# waiting +
+     *  # running.)  A job moving from waiting to running may be missed or
+     *  counted twice by a concurrent call.
+     */
+    public int getCount() {
+        return waiting + running;
+    }
+
+    /**
+     *  Sets how many times the job may run at once; 1 keeps runs from
+     *  overlapping.  Default is -1, for unlimited.
+     */
+    public void setMaxRunning(int maxRunning) {
+        this.maxRunning = maxRunning;
+    }
+
+    public int getMaxRunning() {
+        return maxRunning;
+    }
+
+    /**
+     *  Retuns the number of runs skipped because the job was at its limit.
+     */
+    public long getSkippedCount() {
+        return skipped;
+    }
+
+    void queued() {
+        WAITING.incrementAndGet(this);
+    }
+
+    void dropped() {
+        WAITING.decrementAndGet(this);
+    }
+
+    /**
+     *  Moves a run from waiting to running unless the job is at its limit,
+     *  in which case the run is counted as skipped.
+     *
+     *  @return true if the run may start.
+     */
+    boolean tryStart() {
+        int max = maxRunning;
+        if (max < 0) {
+            RUNNING.incrementAndGet(this);
+        } else {
+            int r;
+            do {
+                r = running;
+                if (r >= max) {
+                    WAITING.decrementAndGet(this);
+                    SKIPPED.incrementAndGet(this);
+                    return false;
+                }
+            } while (!RUNNING.compareAndSet(this, r, r + 1));
+        }
+        WAITING.decrementAndGet(this);
+        return true;
+    }
+
+    void finished() {
+        RUNNING.decrementAndGet(this);
+    }
+
+}
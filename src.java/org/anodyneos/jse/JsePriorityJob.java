@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2002 John Vasileff
+ *
+ * Permission  is  hereby  granted,  free of  charge,  to  any  person
+ * obtaining  a copy  of  this software  and associated  documentation
+ * files   (the  "Software"),   to  deal   in  the   Software  without
+ * restriction, including without limitation  the rights to use, copy,
+ * modify, merge, publish, distribute,  sublicense, and/or sell copies
+ * of the  Software, and  to permit  persons to  whom the  Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The  above copyright  notice and  this permission  notice shall  be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE  SOFTWARE  IS  PROVIDED  "AS   IS",  WITHOUT  WARRANTY  OF  ANY
+ * KIND,  EXPRESS  OR  IMPLIED,  INCLUDING  BUT  NOT  LIMITED  TO  THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES  OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT,  TORT OR OTHERWISE, ARISING FROM, OUT  OF OR IN
+ * CONNECTION WITH  THE SOFTWARE OR THE  USE OR OTHER DEALINGS  IN THE
+ * SOFTWARE.
+ */
+
+package org.anodyneos.jse;
+
+/**
+ *  A job that tells <code>JseRunner</code> how urgent it is.  Read once
+ *  each time the job is queued, and used only when the runner's queue
+ *  order is not <code>JseRunner.ORDER_FIFO</code>.  Other jobs have
+ *  priority 0 and no deadline.
+ *
+ *  @see JseRunner#setQueueOrder(int)
+ */
+public interface JsePriorityJob extends Runnable {
+    /**
+     *  Returns the priority of this run.  Higher priorities run first.
+     */
+    int getPriority();
+
+    /**
+     *  Returns the time in milliseconds since the epoch by which this run
+     *  should start, or <code>Long.MAX_VALUE</code> for none.
+     */
+    long getDeadline();
+}
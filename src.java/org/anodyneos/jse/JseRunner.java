@@ -24,32 +24,142 @@
 
 package org.anodyneos.jse;
 
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  *  Launches and tracks threads running the <code>run</code> method of a
- *  Runnable.
+ *  Runnable.  Jobs run on a pool of worker threads that are reused from one
+ *  job to the next.  The pool keeps <code>poolSize</code> threads while
+ *  idle and grows as far as <code>maxConcurrent</code> allows; threads above
+ *  <code>poolSize</code> exit after idling for the keep-alive time.
+ *
+ *  <p>In virtual-thread mode each job instead gets a new virtual thread,
+ *  so jobs that mostly block on I/O do not each hold an OS thread.  This
+ *  needs a JVM with virtual threads, which is detected at runtime; on
+ *  older JVMs the pool is used.</p>
+ *
+ *  <p>In fork-join mode jobs bypass the run queue and this thread: each
+ *  call to <code>queue</code> hands the job straight to a work-stealing
+ *  <code>ForkJoinPool</code>, whose parallelism takes the place of
+ *  <code>maxConcurrent</code>.  Jobs counted by a <code>JseJobCounter</code>
+ *  are then queued and run without taking this runner's lock, and a job may
+ *  fork subtasks that run on the same pool.  This needs a JVM with
+ *  <code>ForkJoinPool</code>, which is detected at runtime.</p>
+ *
+ *  <p>Several job groups may share one runner, each queueing through its
+ *  own <code>JseRunnerGroup</code>.  The runner then picks which group to
+ *  start a job from by weighted fair queuing, so threads left idle by one
+ *  group go to the others.  Jobs passed to <code>queue</code> directly go to
+ *  a default group of weight 1.</p>
+ *
+ *  <p>The number of jobs waiting may be bounded.  When a job is queued
+ *  while the queue is full, the overflow policy drops the new job or the
+ *  oldest one waiting in its group, blocks the queueing thread until there
+ *  is room, or runs the job on the queueing thread.  What each policy did
+ *  is counted.  Jobs queued in fork-join mode are not bounded.</p>
  *
  *  @version $Id: JseRunner.java,v 1.2 2004-05-13 03:42:03 jvas Exp $
  */
 public class JseRunner extends Thread {
 
     public static final int DEFAULT_MAX_CONCURRENT = 1;
+    public static final int DEFAULT_POOL_SIZE = 1;
+    public static final long DEFAULT_KEEP_ALIVE_MILLIS = 60000;
+
+    /** Queue order: jobs start in the order queued.  The default. */
+    public static final int ORDER_FIFO = 0;
+
+    /**
+     *  Queue order: jobs with higher <code>JsePriorityJob</code> priority
+     *  start first, then those with earlier deadlines, then in the order
+     *  queued.
+     */
+    public static final int ORDER_PRIORITY = 1;
+
+    /**
+     *  Queue order: jobs with earlier <code>JsePriorityJob</code> deadlines
+     *  start first, then those with higher priority, then in the order
+     *  queued.
+     */
+    public static final int ORDER_DEADLINE = 2;
+
+    /** Overflow policy: a job queued while the queue is full is dropped. */
+    public static final int OVERFLOW_DROP_NEWEST = 0;
+
+    /**
+     *  Overflow policy: the job of the same group that has waited longest is
+     *  dropped to make room, or the new job if the group has none waiting.
+     */
+    public static final int OVERFLOW_DROP_OLDEST = 1;
+
+    /** Overflow policy: <code>queue</code> waits until there is room. */
+    public static final int OVERFLOW_BLOCK = 2;
+
+    /**
+     *  Overflow policy: <code>queue</code> runs the job itself before
+     *  returning.  An exception thrown by the job goes to the queueing
+     *  thread's uncaught exception handler.
+     */
+    public static final int OVERFLOW_CALLER_RUNS = 3;
+
+    /** results of makeRoom() */
+    private static final int ROOM = 0;
+    private static final int NO_ROOM = 1;
+    private static final int CALLER_RUNS = 2;
 
     private int maxConcurrent = DEFAULT_MAX_CONCURRENT;
-    private HashSet<RunnableThread> activeThreads = new HashSet<RunnableThread>();
-    private LinkedList<Runnable> jobQueue = new LinkedList<Runnable>();
-    private boolean done = false;
+    private HashSet<RunningJob> activeJobs = new HashSet<RunningJob>();
+    private ThreadPoolExecutor workers;
+    /** creates a virtual thread per job; null unless in virtual-thread mode */
+    private volatile ThreadFactory virtualThreads;
+    /** runs queued jobs in fork-join mode; null otherwise */
+    private volatile ExecutorService forkJoin;
+    /** runs handed to a fork-join pool and not yet started or finished */
+    private final AtomicInteger forkJoinWaiting = new AtomicInteger();
+    private final AtomicInteger forkJoinRunning = new AtomicInteger();
+    private final Set<ForkJoinJob> forkJoinJobs =
+            Collections.newSetFromMap(new ConcurrentHashMap<ForkJoinJob, Boolean>());
+    /** set by shutdownNow(); fork-join runs not yet started are dropped */
+    private volatile boolean abandon = false;
+    /** every group of this runner, the default group first */
+    private ArrayList<JseRunnerGroup> groups = new ArrayList<JseRunnerGroup>();
+    private JseRunnerGroup defaultGroup;
+    /** jobs waiting in all groups' queues */
+    private int waiting;
+    /** the pass of the group last started from; where idle groups rejoin */
+    private long virtualTime;
+    private int queueOrder = ORDER_FIFO;
+    /** most jobs waiting in all groups; -1 for no limit */
+    private int queueCapacity = -1;
+    private int overflowPolicy = OVERFLOW_DROP_NEWEST;
+    private long droppedNewestCount;
+    private long droppedOldestCount;
+    private long blockedCount;
+    private long callerRunsCount;
+    private volatile boolean done = false;
+    private volatile boolean shutdown = false;
 
     /**
-     *  <code>jobCountActive</code> and <code>jobCountQueue</code> map
-     *  <code>Runnable</code>s to Integers that track the number of times a
-     *  particular <code>Runnable</code> is currently queued or running.
+     *  Counters for jobs that do not implement <code>JseCountedJob</code>,
+     *  kept while the job is waiting or running.
      */
-    private Counter jobRunningCounter = new Counter();
-    private Counter jobWaitingCounter = new Counter();
+    private HashMap<Object, JseJobCounter> jobCounters =
+            new HashMap<Object, JseJobCounter>();
 
     /**
      *  Create a new <code>JseRunner</code> thread.  After necessary
@@ -58,7 +168,38 @@ public class JseRunner extends Thread {
      *  <code>start()</code> method.
      */
     public JseRunner() {
-        // super
+        workers = new ThreadPoolExecutor(DEFAULT_POOL_SIZE, Integer.MAX_VALUE,
+                DEFAULT_KEEP_ALIVE_MILLIS, TimeUnit.MILLISECONDS,
+                new SynchronousQueue<Runnable>(), new WorkerThreadFactory());
+        defaultGroup = new JseRunnerGroup(this, "default", 1, 0);
+        groups.add(defaultGroup);
+    }
+
+    /**
+     *  Creates a job group sharing this runner.
+     *
+     *  @param name The name of the group.
+     *  @param weight The group's share of this runner relative to other
+     *  groups.  Must be at least 1.
+     *  @param minShare How many of the group's jobs should be running when
+     *  it has jobs waiting.
+     */
+    public synchronized JseRunnerGroup createGroup(String name, int weight, int minShare) {
+        if (weight < 1) {
+            throw new IllegalArgumentException("weight must be at least 1: " + weight);
+        }
+        JseRunnerGroup group = new JseRunnerGroup(this, name, weight, minShare);
+        group.queue.setOrder(queueOrder);
+        group.pass = virtualTime;
+        groups.add(group);
+        return group;
+    }
+
+    /**
+     *  Returns the group of jobs passed to <code>queue</code> directly.
+     */
+    public JseRunnerGroup getDefaultGroup() {
+        return defaultGroup;
     }
 
     /**
@@ -68,11 +209,227 @@ public class JseRunner extends Thread {
      *
      *  @param job The job to be run.  It will be added to the end of the queue.
      */
-    public synchronized void queue(Runnable job) {
-        if (null != job) {
-            jobQueue.addLast(job);
-            jobWaitingCounter.incr(job);
-            notify();
+    public void queue(Runnable job) {
+        queue(defaultGroup, job);
+    }
+
+    void queue(JseRunnerGroup group, Runnable job) {
+        ExecutorService pool = forkJoin;
+        if (null != pool) {
+            if (null != job && !shutdown && !group.shutdown) {
+                fork(pool, job);
+            }
+            return;
+        }
+        synchronized(this) {
+            if (null == job || shutdown || group.shutdown) {
+                return;
+            }
+            int room = makeRoom(group, job);
+            if (room == ROOM) {
+                enqueue(group, job);
+                notifyAll();
+                return;
+            } else if (room == NO_ROOM) {
+                return;
+            }
+        }
+        runHere(job);
+    }
+
+    /**
+     *  Add several jobs to the run queue at once, in iteration order.  Same
+     *  as calling <code>queue(Runnable)</code> for each but, unless the
+     *  queue is bounded, wakes this <code>JseRunner</code> only once.  Jobs
+     *  to be run by the caller under <code>OVERFLOW_CALLER_RUNS</code> are
+     *  run after the others are queued.
+     *
+     *  @param jobs The jobs to be run.  Null elements are ignored.
+     */
+    public void queue(Collection<? extends Runnable> jobs) {
+        queue(defaultGroup, jobs);
+    }
+
+    void queue(JseRunnerGroup group, Collection<? extends Runnable> jobs) {
+        ExecutorService pool = forkJoin;
+        if (null != pool) {
+            for (Runnable job : jobs) {
+                if (null != job && !shutdown && !group.shutdown) {
+                    fork(pool, job);
+                }
+            }
+            return;
+        }
+        List<Runnable> callerRuns = null;
+        synchronized(this) {
+            for (Runnable job : jobs) {
+                if (shutdown || group.shutdown) {
+                    break;
+                }
+                if (null == job) {
+                    continue;
+                }
+                int room = makeRoom(group, job);
+                if (room == ROOM) {
+                    enqueue(group, job);
+                    if (queueCapacity >= 0) {
+                        // wake the runner now in case the next job blocks
+                        notifyAll();
+                    }
+                } else if (room == CALLER_RUNS) {
+                    if (null == callerRuns) {
+                        callerRuns = new ArrayList<Runnable>();
+                    }
+                    callerRuns.add(job);
+                }
+            }
+            notifyAll();
+        }
+        if (null != callerRuns) {
+            for (Runnable job : callerRuns) {
+                runHere(job);
+            }
+        }
+    }
+
+    /**
+     *  Applies the overflow policy if the queue is full.  Must hold the
+     *  lock, which is released while blocking.
+     *
+     *  @return <code>ROOM</code> if <code>job</code> may be queued,
+     *  <code>CALLER_RUNS</code> if the caller is to run it, or
+     *  <code>NO_ROOM</code> if it was dropped.
+     */
+    private int makeRoom(JseRunnerGroup group, Runnable job) {
+        if (queueCapacity < 0 || waiting < queueCapacity) {
+            return ROOM;
+        }
+        switch (overflowPolicy) {
+        case OVERFLOW_DROP_OLDEST:
+            Runnable oldest = group.queue.removeOldest();
+            if (null != oldest) {
+                waiting--;
+                counterFor(oldest).dropped();
+                release(oldest);
+                skip(oldest);
+                droppedOldestCount++;
+                return ROOM;
+            }
+            break;
+        case OVERFLOW_BLOCK:
+            blockedCount++;
+            while (queueCapacity >= 0 && waiting >= queueCapacity) {
+                if (shutdown || group.shutdown) {
+                    // ignored as after shutdown, not counted as dropped
+                    skip(job);
+                    return NO_ROOM;
+                }
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            if (queueCapacity < 0 || waiting < queueCapacity) {
+                return ROOM;
+            }
+            break;
+        case OVERFLOW_CALLER_RUNS:
+            callerRunsCount++;
+            return CALLER_RUNS;
+        default:
+            break;
+        }
+        skip(job);
+        droppedNewestCount++;
+        return NO_ROOM;
+    }
+
+    /** tells a job that keeps a counter that a run of it was dropped */
+    private static void skip(Runnable job) {
+        if (job instanceof JseCountedJob) {
+            ((JseCountedJob) job).runSkipped();
+        }
+    }
+
+    /**
+     *  Runs <code>job</code> on the calling thread, counted as running like
+     *  a job run by a worker.
+     */
+    private void runHere(Runnable job) {
+        JseJobCounter counter = lockedCounterFor(job);
+        counter.queued();
+        if (!counter.tryStart()) {
+            skip(job);
+            return;
+        }
+        try {
+            job.run();
+        } catch (Throwable e) {
+            // the queueing thread, such as a scheduler, carries on
+            Thread t = Thread.currentThread();
+            t.getUncaughtExceptionHandler().uncaughtException(t, e);
+        } finally {
+            counter.finished();
+            lockedRelease(job);
+        }
+    }
+
+    /**
+     *  Adds <code>job</code> to the queue of <code>group</code>.  Must hold
+     *  the lock.
+     */
+    private void enqueue(JseRunnerGroup group, Runnable job) {
+        if (group.queue.isEmpty() && group.pass < virtualTime) {
+            // no credit for the time it had nothing to run
+            group.pass = virtualTime;
+        }
+        group.queue.add(job);
+        waiting++;
+        counterFor(job).queued();
+    }
+
+    /**
+     *  Returns the group to start a job from next, or null if every group
+     *  with jobs waiting is at its own limit.  Groups below their minimum
+     *  share go first, then the one least served for its weight.  Must hold
+     *  the lock.
+     */
+    private JseRunnerGroup nextGroup() {
+        JseRunnerGroup next = null;
+        boolean nextStarved = false;
+        for (int i = 0; i < groups.size(); i++) {
+            JseRunnerGroup group = groups.get(i);
+            if (group.queue.isEmpty()
+                    || (group.maxConcurrent != -1 && group.running >= group.maxConcurrent)) {
+                continue;
+            }
+            boolean starved = group.running < group.minShare;
+            if (null == next || (starved && !nextStarved)
+                    || (starved == nextStarved && group.pass < next.pass)) {
+                next = group;
+                nextStarved = starved;
+            }
+        }
+        return next;
+    }
+
+    /**
+     *  Hands <code>job</code> to a fork-join pool.  Takes the lock only to
+     *  count jobs that are not a <code>JseCountedJob</code>.
+     */
+    private void fork(ExecutorService pool, Runnable job) {
+        JseJobCounter counter = lockedCounterFor(job);
+        counter.queued();
+        forkJoinWaiting.incrementAndGet();
+        try {
+            pool.execute(new ForkJoinJob(job, counter));
+        } catch (RejectedExecutionException e) {
+            // pool shut down since forkJoin was read
+            forkJoinWaiting.decrementAndGet();
+            counter.dropped();
+            lockedRelease(job);
         }
     }
 
@@ -87,13 +444,218 @@ public class JseRunner extends Thread {
      */
     public synchronized void setMaxConcurrent(int max) {
         this.maxConcurrent = max;
-        notify();
+        notifyAll();
     }
 
     public int getMaxConcurrent() {
         return maxConcurrent;
     }
 
+    /**
+     *  Sets the order in which waiting jobs start; one of the
+     *  <code>ORDER_</code> constants.  Jobs already waiting are reordered.
+     *  Does not apply to jobs queued in fork-join mode, which go straight to
+     *  the pool.
+     */
+    public synchronized void setQueueOrder(int order) {
+        if (order != ORDER_FIFO && order != ORDER_PRIORITY && order != ORDER_DEADLINE) {
+            throw new IllegalArgumentException("Unknown queue order: " + order);
+        }
+        queueOrder = order;
+        for (int i = 0; i < groups.size(); i++) {
+            groups.get(i).queue.setOrder(order);
+        }
+    }
+
+    public synchronized int getQueueOrder() {
+        return queueOrder;
+    }
+
+    /**
+     *  Sets the most jobs that may wait to be run, across all groups.
+     *  Default is -1, for no limit.
+     */
+    public synchronized void setQueueCapacity(int capacity) {
+        this.queueCapacity = capacity;
+        notifyAll();
+    }
+
+    public synchronized int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    /**
+     *  Sets what happens to a job queued while the queue is full; one of
+     *  the <code>OVERFLOW_</code> constants.  Default is
+     *  <code>OVERFLOW_DROP_NEWEST</code>.
+     */
+    public synchronized void setOverflowPolicy(int policy) {
+        if (policy != OVERFLOW_DROP_NEWEST && policy != OVERFLOW_DROP_OLDEST
+                && policy != OVERFLOW_BLOCK && policy != OVERFLOW_CALLER_RUNS) {
+            throw new IllegalArgumentException("Unknown overflow policy: " + policy);
+        }
+        this.overflowPolicy = policy;
+        notifyAll();
+    }
+
+    public synchronized int getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     *  Returns the number of jobs dropped because the queue was full, both
+     *  new jobs turned away and waiting jobs dropped to make room.
+     */
+    public synchronized long getDroppedCount() {
+        return droppedNewestCount + droppedOldestCount;
+    }
+
+    /**
+     *  Returns the number of jobs turned away because the queue was full:
+     *  all dropped jobs under <code>OVERFLOW_DROP_NEWEST</code>, and under
+     *  the other policies those that found no room after all.
+     */
+    public synchronized long getDroppedNewestCount() {
+        return droppedNewestCount;
+    }
+
+    /**
+     *  Returns the number of waiting jobs dropped to make room under
+     *  <code>OVERFLOW_DROP_OLDEST</code>.
+     */
+    public synchronized long getDroppedOldestCount() {
+        return droppedOldestCount;
+    }
+
+    /**
+     *  Returns the number of times <code>queue</code> blocked because the
+     *  queue was full.
+     */
+    public synchronized long getBlockedCount() {
+        return blockedCount;
+    }
+
+    /**
+     *  Returns the number of jobs run by the queueing thread because the
+     *  queue was full.
+     */
+    public synchronized long getCallerRunsCount() {
+        return callerRunsCount;
+    }
+
+    /**
+     *  Sets how many worker threads are kept while idle.  Default is 1.
+     */
+    public void setPoolSize(int poolSize) {
+        workers.setCorePoolSize(poolSize);
+    }
+
+    public int getPoolSize() {
+        return workers.getCorePoolSize();
+    }
+
+    /**
+     *  Sets how long worker threads beyond the pool size may idle before
+     *  they exit.  Default is one minute.
+     */
+    public void setKeepAlive(long time, TimeUnit unit) {
+        workers.setKeepAliveTime(time, unit);
+    }
+
+    public long getKeepAlive(TimeUnit unit) {
+        return workers.getKeepAliveTime(unit);
+    }
+
+    /**
+     *  Sets the factory for worker threads created from now on.  By default
+     *  workers are named after this runner and share its daemon status.
+     */
+    public void setThreadFactory(ThreadFactory threadFactory) {
+        workers.setThreadFactory(threadFactory);
+    }
+
+    public ThreadFactory getThreadFactory() {
+        return workers.getThreadFactory();
+    }
+
+    /**
+     *  Turns virtual-thread mode on or off.  Has no effect on jobs already
+     *  running.
+     *
+     *  @return true if jobs will run on virtual threads; false if turned
+     *  off or if this JVM does not support them.
+     */
+    public boolean setVirtualThreads(boolean virtual) {
+        virtualThreads = virtual ? newVirtualThreadFactory(getName() + "-virtual-") : null;
+        return null != virtualThreads;
+    }
+
+    public boolean isVirtualThreads() {
+        return null != virtualThreads;
+    }
+
+    /**
+     *  Turns fork-join mode on or off.  Jobs already queued or running are
+     *  not moved; when turned off, the old pool finishes the runs it was
+     *  given.  <code>maxConcurrent</code> does not apply to jobs queued in
+     *  fork-join mode.
+     *
+     *  @param parallelism The target number of concurrently running jobs;
+     *  -1 for the number of processors; 0 to turn fork-join mode off.
+     *  @return true if jobs will be handed to a fork-join pool; false if
+     *  turned off or if this JVM has no <code>ForkJoinPool</code>.
+     */
+    public boolean setForkJoin(int parallelism) {
+        if (-1 == parallelism) {
+            parallelism = Runtime.getRuntime().availableProcessors();
+        }
+        ExecutorService old;
+        synchronized(this) {
+            old = forkJoin;
+            forkJoin = parallelism > 0 && !shutdown ? newForkJoinPool(parallelism) : null;
+        }
+        if (null != old) {
+            old.shutdown();
+        }
+        return null != forkJoin;
+    }
+
+    public boolean isForkJoin() {
+        return null != forkJoin;
+    }
+
+    /**
+     *  Returns <code>new ForkJoinPool(parallelism)</code>, or null if this
+     *  JVM has no fork-join pools.  Called reflectively since this code is
+     *  compiled for older JVMs.
+     */
+    private static ExecutorService newForkJoinPool(int parallelism) {
+        try {
+            Class<?> poolClass = Class.forName("java.util.concurrent.ForkJoinPool");
+            return (ExecutorService) poolClass.getConstructor(int.class)
+                    .newInstance(Integer.valueOf(parallelism));
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     *  Returns <code>Thread.ofVirtual().name(prefix, 1).factory()</code>, or
+     *  null if this JVM has no virtual threads.  Called reflectively since
+     *  this code is compiled for older JVMs.
+     */
+    private static ThreadFactory newVirtualThreadFactory(String prefix) {
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Method name = builderClass.getMethod("name", String.class, long.class);
+            builder = name.invoke(builder, prefix, Long.valueOf(1));
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
     /**
      *  Instruct JseRunner to exit once all queued threads are launched.
      *  JseRunner may exit before all threads have completed execution.
@@ -101,7 +663,164 @@ public class JseRunner extends Thread {
      */
     public synchronized void release() {
         done = true;
-        notify();
+        notifyAll();
+    }
+
+    /**
+     *  Like <code>release</code>, but also ignores jobs queued from now on.
+     */
+    public synchronized void shutdown() {
+        shutdown = true;
+        done = true;
+        notifyAll();
+    }
+
+    /**
+     *  Shuts down, waits up to <code>timeout</code> for queued and running
+     *  jobs to finish, then abandons the rest as <code>shutdownNow</code>
+     *  does.
+     *
+     *  @return The number of runs abandoned: those never started plus those
+     *  still running at the deadline.
+     */
+    public int shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        shutdown();
+        if (awaitTermination(timeout, unit)) {
+            return 0;
+        }
+        synchronized(this) {
+            // fork-join runs finish without the lock, so count them first
+            int forkJoinCount = forkJoinWaiting.get() + forkJoinRunning.get();
+            return shutdownNow().size() + activeJobs.size() + forkJoinCount;
+        }
+    }
+
+    /**
+     *  Shuts down, drops every job not yet launched and interrupts the
+     *  threads of running jobs.
+     *
+     *  @return The jobs that were dropped, in queue order.  Does not include
+     *  runs handed to a fork-join pool; those are dropped as the pool
+     *  reaches them.
+     */
+    public synchronized List<Runnable> shutdownNow() {
+        shutdown = true;
+        done = true;
+        abandon = true;
+        List<Runnable> abandoned = new ArrayList<Runnable>(waiting);
+        for (int i = 0; i < groups.size(); i++) {
+            abandoned.addAll(drop(groups.get(i)));
+        }
+        for (RunningJob running : activeJobs) {
+            running.interrupt();
+        }
+        for (ForkJoinJob running : forkJoinJobs) {
+            running.interrupt();
+        }
+        workers.shutdown();
+        if (null != forkJoin) {
+            forkJoin.shutdown();
+        }
+        notifyAll();
+        return abandoned;
+    }
+
+    public synchronized boolean isShutdown() {
+        return shutdown;
+    }
+
+    /**
+     *  Removes and returns the jobs waiting in <code>group</code>.  Must
+     *  hold the lock.
+     */
+    private List<Runnable> drop(JseRunnerGroup group) {
+        List<Runnable> dropped = group.queue.drain();
+        waiting -= dropped.size();
+        for (Runnable job : dropped) {
+            counterFor(job).dropped();
+            release(job);
+        }
+        return dropped;
+    }
+
+    synchronized void shutdown(JseRunnerGroup group) {
+        group.shutdown = true;
+        retire(group);
+        notifyAll();
+    }
+
+    int shutdown(JseRunnerGroup group, long timeout, TimeUnit unit) throws InterruptedException {
+        shutdown(group);
+        if (awaitTermination(group, timeout, unit)) {
+            return 0;
+        }
+        synchronized(this) {
+            int abandoned = drop(group).size() + group.running;
+            for (RunningJob running : activeJobs) {
+                if (running.group == group) {
+                    running.interrupt();
+                }
+            }
+            retire(group);
+            notifyAll();
+            return abandoned;
+        }
+    }
+
+    synchronized boolean isTerminated(JseRunnerGroup group) {
+        return (group.shutdown || done) && group.queue.isEmpty() && group.running == 0;
+    }
+
+    synchronized boolean awaitTermination(JseRunnerGroup group, long timeout, TimeUnit unit)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!isTerminated(group)) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return true;
+    }
+
+    /**
+     *  Forgets a group once it is shut down and has nothing left to run, so
+     *  groups created and shut down over time do not pile up.  Must hold the
+     *  lock.
+     */
+    private void retire(JseRunnerGroup group) {
+        if (group.shutdown && group.queue.isEmpty() && group.running == 0) {
+            groups.remove(group);
+        }
+    }
+
+    /**
+     *  Returns true once shut down or released and no jobs are waiting or
+     *  running.
+     */
+    public synchronized boolean isTerminated() {
+        // a fork-join run counts as running before it stops waiting
+        return done && waiting == 0 && activeJobs.isEmpty()
+                && forkJoinWaiting.get() == 0 && forkJoinRunning.get() == 0;
+    }
+
+    /**
+     *  Waits until <code>isTerminated()</code> or the timeout passes.
+     *
+     *  @return true if terminated.
+     */
+    public synchronized boolean awaitTermination(long timeout, TimeUnit unit)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!isTerminated()) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return true;
     }
 
     /**
@@ -111,19 +830,17 @@ public class JseRunner extends Thread {
     public synchronized void run() {
         // process queue.  When empty or maxConcurrent, wait.  Exit when told.
         while(true) {
-            if (done && jobQueue.size() == 0) {
+            if (done && waiting == 0) {
                 break;
             }
-            if (jobQueue.size() != 0 &&
-                    (   maxConcurrent == -1 ||
-                        maxConcurrent > activeThreads.size())) {
-                // run next job
-                Runnable job = jobQueue.removeFirst();
-                jobWaitingCounter.decr(job);
-                jobRunningCounter.incr(job);
-                RunnableThread jobThread = new RunnableThread(job);
-                activeThreads.add(jobThread);
-                jobThread.start();
+            RunningJob running = startNext();
+            if (null != running) {
+                ThreadFactory virtual = virtualThreads;
+                if (null != virtual) {
+                    virtual.newThread(running).start();
+                } else {
+                    workers.execute(running);
+                }
             } else {
                 try {
                     wait();
@@ -131,53 +848,170 @@ public class JseRunner extends Thread {
                 }
             }
         }
+        // idle workers exit; busy ones once their jobs finish
+        workers.shutdown();
+        if (null != forkJoin) {
+            forkJoin.shutdown();
+        }
+    }
+
+    /**
+     *  Takes the next job that may start now and counts it as running, or
+     *  returns null if none may.  Must hold the lock.
+     */
+    private RunningJob startNext() {
+        while (waiting != 0 &&
+                (   maxConcurrent == -1 ||
+                    maxConcurrent > activeJobs.size())) {
+            JseRunnerGroup group = nextGroup();
+            if (null == group) {
+                return null;
+            }
+            Runnable job = group.queue.poll();
+            waiting--;
+            if (queueCapacity >= 0) {
+                // room for a blocked queue() call
+                notifyAll();
+            }
+            if (!counterFor(job).tryStart()) {
+                // at its own limit; other jobs may still start, and the
+                // group is not charged for a run that did not happen
+                ((JseCountedJob) job).runSkipped();
+                retire(group);
+                continue;
+            }
+            virtualTime = Math.max(virtualTime, group.pass);
+            group.pass += JseRunnerGroup.STRIDE / group.weight;
+            group.running++;
+            RunningJob running = new RunningJob(job, group);
+            activeJobs.add(running);
+            return running;
+        }
+        return null;
+    }
+
+    /**
+     *  Used by RunningJob when the Runnable has completed.  If
+     *  <code>takeNext</code>, returns the next job for the same thread to
+     *  run, if one may start, so the worker is not handed back to the pool
+     *  only for another to be started.
+     */
+    private synchronized RunningJob finished(RunningJob running, boolean takeNext) {
+        activeJobs.remove(running);
+        running.group.running--;
+        retire(running.group);
+        counterFor(running.job).finished();
+        release(running.job);
+        notifyAll();
+        return takeNext ? startNext() : null;
+    }
+
+    /**
+     *  Returns the counter for <code>job</code>, creating one for jobs that
+     *  do not keep their own.  Must hold the lock unless <code>job</code> is
+     *  a <code>JseCountedJob</code>.
+     */
+    private JseJobCounter counterFor(Runnable job) {
+        if (job instanceof JseCountedJob) {
+            return ((JseCountedJob) job).getJobCounter();
+        }
+        JseJobCounter counter = jobCounters.get(job);
+        if (null == counter) {
+            counter = new JseJobCounter();
+            jobCounters.put(job, counter);
+        }
+        return counter;
+    }
+
+    /**
+     *  Like <code>counterFor</code> but takes the lock when needed.
+     */
+    private JseJobCounter lockedCounterFor(Runnable job) {
+        if (job instanceof JseCountedJob) {
+            return ((JseCountedJob) job).getJobCounter();
+        }
+        synchronized(this) {
+            return counterFor(job);
+        }
+    }
+
+    /**
+     *  Like <code>release</code> but takes the lock when needed.
+     */
+    private void lockedRelease(Runnable job) {
+        if (!(job instanceof JseCountedJob)) {
+            synchronized(this) {
+                release(job);
+            }
+        }
+    }
+
+    /**
+     *  Forgets the counter of a job without its own once it is neither
+     *  waiting nor running.  Must hold the lock.
+     */
+    private void release(Runnable job) {
+        if (!(job instanceof JseCountedJob)) {
+            JseJobCounter counter = jobCounters.get(job);
+            if (null != counter && counter.getCount() == 0) {
+                jobCounters.remove(job);
+            }
+        }
     }
 
     /**
-     *  Used by RunnableThread when the Runnable has completed.
+     *  Returns the counter for <code>job</code> if it has one, without
+     *  creating it.
      */
-    private synchronized void finished(RunnableThread thread) {
-        activeThreads.remove(thread);
-        jobRunningCounter.decr(thread.job);
-        notify();
+    private JseJobCounter findCounter(Runnable job) {
+        if (job instanceof JseCountedJob) {
+            return ((JseCountedJob) job).getJobCounter();
+        }
+        synchronized(this) {
+            return jobCounters.get(job);
+        }
     }
 
     /**
      *  Retuns the number of times the <code>Runnable</code> is currently waiting
-     *  to be run.
+     *  to be run.  Takes no lock for a <code>JseCountedJob</code>.
      */
-    public final synchronized int getWaitingCount(Runnable job) {
-        return jobWaitingCounter.value(job);
+    public final int getWaitingCount(Runnable job) {
+        JseJobCounter counter = findCounter(job);
+        return null == counter ? 0 : counter.getWaitingCount();
     }
 
     /**
      *  Retuns the number of times the <code>Runnable</code> is currently
-     *  running.
+     *  running.  Takes no lock for a <code>JseCountedJob</code>.
      */
-    public final synchronized int getRunningCount(Runnable job) {
-        return jobRunningCounter.value(job);
+    public final int getRunningCount(Runnable job) {
+        JseJobCounter counter = findCounter(job);
+        return null == counter ? 0 : counter.getRunningCount();
     }
 
     /**
      *  Retuns the number of times the <code>Runnable</code> is currently queued
-     *  (# waiting + # running.)
+     *  (# waiting + # running.)  Takes no lock for a
+     *  <code>JseCountedJob</code>.
      */
-    public final synchronized int getCount(Runnable job) {
-        return jobWaitingCounter.value(job) + jobRunningCounter.value(job);
+    public final int getCount(Runnable job) {
+        JseJobCounter counter = findCounter(job);
+        return null == counter ? 0 : counter.getCount();
     }
 
     /**
      *  Retuns the total number of <code>Runnable</code>s currently waiting to be run.
      */
     public final synchronized int getWaitingCount() {
-        return jobQueue.size();
+        return waiting + forkJoinWaiting.get();
     }
 
     /**
      *  Retuns the total number of <code>Runnable</code>s currently running.
      */
     public final synchronized int getRunningCount() {
-        return activeThreads.size();
+        return activeJobs.size() + forkJoinRunning.get();
     }
 
     /**
@@ -185,60 +1019,159 @@ public class JseRunner extends Thread {
      *  waiting + # running.)
      */
     public final synchronized int getCount() {
-        return jobQueue.size() + activeThreads.size();
+        return waiting + activeJobs.size()
+                + forkJoinWaiting.get() + forkJoinRunning.get();
     }
 
-    private class RunnableThread extends Thread {
+    /**
+     *  A job handed to a worker thread.
+     */
+    private class RunningJob implements Runnable {
 
         Runnable job;
+        JseRunnerGroup group;
+        /** the worker running this, once started */
+        private Thread thread;
+        private boolean interrupted;
 
-        RunnableThread(Runnable job) {
+        RunningJob(Runnable job, JseRunnerGroup group) {
             this.job = job;
+            this.group = group;
         }
 
+        /**
+         *  Runs this job, then any that <code>finished</code> hands back.
+         */
         @Override
         public void run() {
+            RunningJob running = this;
+            while (null != running) {
+                running = running.runOnce();
+            }
+        }
+
+        private RunningJob runOnce() {
+            synchronized(this) {
+                thread = Thread.currentThread();
+                if (interrupted) {
+                    thread.interrupt();
+                }
+            }
+            boolean completed = false;
+            RunningJob next;
             try {
                 job.run();
+                completed = true;
             //} catch(Throwable t) {
-                // don't catch - jvm will print to console
+                // don't catch - the worker's uncaught exception handler will
+                // print to console
             } finally {
-                finished(this);
+                synchronized(this) {
+                    thread = null;
+                }
+                // clear an interrupt meant for this job before the worker is
+                // reused
+                Thread.interrupted();
+                // a worker dying of an exception leaves the next job to run()
+                next = finished(this, completed);
+            }
+            return next;
+        }
+
+        synchronized void interrupt() {
+            interrupted = true;
+            if (null != thread) {
+                thread.interrupt();
             }
         }
     }
 
-    private final class Counter {
-        HashMap<Object, Integer> objectCounts = new HashMap<Object, Integer>();
+    /**
+     *  A job handed to a fork-join pool.  Counts itself without the runner's
+     *  lock, which is taken only to wake <code>awaitTermination</code> once
+     *  shut down.
+     */
+    private class ForkJoinJob implements Runnable {
+
+        private Runnable job;
+        private JseJobCounter counter;
+        /** the pool thread running this, once started */
+        private Thread thread;
+        private boolean interrupted;
 
-        public final void incr(Object obj) {
-            Integer count = objectCounts.get(obj);
-            if (null == count) {
-                count = new Integer(1);
-            } else {
-                count = new Integer(count.intValue() + 1);
+        ForkJoinJob(Runnable job, JseJobCounter counter) {
+            this.job = job;
+            this.counter = counter;
+        }
+
+        @Override
+        public void run() {
+            if (abandon) {
+                counter.dropped();
+                forkJoinWaiting.decrementAndGet();
+                lockedRelease(job);
+                terminating();
+                return;
+            }
+            forkJoinRunning.incrementAndGet();
+            if (!counter.tryStart()) {
+                forkJoinRunning.decrementAndGet();
+                forkJoinWaiting.decrementAndGet();
+                ((JseCountedJob) job).runSkipped();
+                terminating();
+                return;
+            }
+            forkJoinWaiting.decrementAndGet();
+            forkJoinJobs.add(this);
+            synchronized(this) {
+                thread = Thread.currentThread();
+                if (interrupted || abandon) {
+                    thread.interrupt();
+                }
+            }
+            try {
+                job.run();
+            } finally {
+                synchronized(this) {
+                    thread = null;
+                }
+                Thread.interrupted();
+                forkJoinJobs.remove(this);
+                counter.finished();
+                forkJoinRunning.decrementAndGet();
+                lockedRelease(job);
+                terminating();
             }
-            objectCounts.put(obj, count);
         }
 
-        public final void decr(Object obj) {
-            Integer count = objectCounts.get(obj);
-            if (null == count) {
-                // this should never happen - jdk1.4 assert
-            } else if (count.intValue() == 1) {
-                objectCounts.remove(obj);
-            } else {
-                objectCounts.put(obj, new Integer(count.intValue() - 1));
+        synchronized void interrupt() {
+            interrupted = true;
+            if (null != thread) {
+                thread.interrupt();
             }
         }
 
-        public final int value(Object obj) {
-            Integer count = objectCounts.get(obj);
-            if (null == count) {
-                return 0;
-            } else {
-                return count.intValue();
+        /** wakes awaitTermination() once nothing is left to run */
+        private void terminating() {
+            if (done) {
+                synchronized(JseRunner.this) {
+                    JseRunner.this.notifyAll();
+                }
             }
         }
     }
+
+    /**
+     *  Names workers after this runner and gives them its daemon status.
+     */
+    private class WorkerThreadFactory implements ThreadFactory {
+        private AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, getName() + "-worker-" + count.incrementAndGet());
+            t.setDaemon(isDaemon());
+            return t;
+        }
+    }
 }
@@ -0,0 +1,214 @@
+/*
+ * Copyright (c) 2002 John Vasileff
+ *
+ * Permission  is  hereby  granted,  free of  charge,  to  any  person
+ * obtaining  a copy  of  this software  and associated  documentation
+ * files   (the  "Software"),   to  deal   in  the   Software  without
+ * restriction, including without limitation  the rights to use, copy,
+ * modify, merge, publish, distribute,  sublicense, and/or sell copies
+ * of the  Software, and  to permit  persons to  whom the  Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The  above copyright  notice and  this permission  notice shall  be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE  SOFTWARE  IS  PROVIDED  "AS   IS",  WITHOUT  WARRANTY  OF  ANY
+ * KIND,  EXPRESS  OR  IMPLIED,  INCLUDING  BUT  NOT  LIMITED  TO  THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES  OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT,  TORT OR OTHERWISE, ARISING FROM, OUT  OF OR IN
+ * CONNECTION WITH  THE SOFTWARE OR THE  USE OR OTHER DEALINGS  IN THE
+ * SOFTWARE.
+ */
+
+package org.anodyneos.jse;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *  One of the job groups sharing a <code>JseRunner</code>.  Each group has
+ *  its own run queue; when a thread is free the runner picks the group to
+ *  start a job from by weighted fair queuing.  Every run a group starts
+ *  costs it <code>1 / weight</code> of virtual time and the backlogged group
+ *  furthest behind goes next, so busy groups share the runner in proportion
+ *  to their weights and an idle group's threads go to the others.
+ *
+ *  <p>A backlogged group running fewer jobs than its minimum share goes
+ *  before any group that is not.  Running jobs are never interrupted, so
+ *  the minimum is reached as threads free up.</p>
+ *
+ *  <p>Groups are created by <code>JseRunner.createGroup</code>.  Weights do
+ *  not apply to jobs queued in fork-join mode, which go straight to the
+ *  pool.</p>
+ *
+ *  @see JseRunner#createGroup(String, int, int)
+ */
+public final class JseRunnerGroup {
+
+    /** virtual time a run costs a group of weight 1 */
+    static final long STRIDE = 1L << 20;
+
+    final JseRunner runner;
+    private final String name;
+
+    /** fields below guarded by the runner's monitor */
+    final RunQueue queue = new RunQueue();
+    int weight;
+    int minShare;
+    int maxConcurrent = -1;
+    int running;
+    /** virtual time this group has been served up to */
+    long pass;
+    volatile boolean shutdown;
+
+    JseRunnerGroup(JseRunner runner, String name, int weight, int minShare) {
+        this.runner = runner;
+        this.name = name;
+        this.weight = weight;
+        this.minShare = minShare;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     *  Adds a job to the end of this group's run queue.
+     */
+    public void queue(Runnable job) {
+        runner.queue(this, job);
+    }
+
+    /**
+     *  Adds several jobs to this group's run queue at once, in iteration
+     *  order.  Null elements are ignored.
+     */
+    public void queue(Collection<? extends Runnable> jobs) {
+        runner.queue(this, jobs);
+    }
+
+    /**
+     *  Sets this group's share of the runner relative to other groups.
+     *  Must be at least 1.  Default is 1.
+     */
+    public void setWeight(int weight) {
+        if (weight < 1) {
+            throw new IllegalArgumentException("weight must be at least 1: " + weight);
+        }
+        synchronized(runner) {
+            this.weight = weight;
+        }
+    }
+
+    public int getWeight() {
+        synchronized(runner) {
+            return weight;
+        }
+    }
+
+    /**
+     *  Sets how many jobs of this group should be running when it has jobs
+     *  waiting.  Default is 0.
+     */
+    public void setMinShare(int minShare) {
+        synchronized(runner) {
+            this.minShare = minShare;
+            runner.notifyAll();
+        }
+    }
+
+    public int getMinShare() {
+        synchronized(runner) {
+            return minShare;
+        }
+    }
+
+    /**
+     *  Sets the most jobs of this group that may run at once.  Default is
+     *  -1, for no limit beyond the runner's.
+     */
+    public void setMaxConcurrent(int max) {
+        synchronized(runner) {
+            this.maxConcurrent = max;
+            runner.notifyAll();
+        }
+    }
+
+    public int getMaxConcurrent() {
+        synchronized(runner) {
+            return maxConcurrent;
+        }
+    }
+
+    /**
+     *  Retuns the number of this group's jobs currently waiting to be run.
+     */
+    public int getWaitingCount() {
+        synchronized(runner) {
+            return queue.size();
+        }
+    }
+
+    /**
+     *  Retuns the number of this group's jobs currently running.
+     */
+    public int getRunningCount() {
+        synchronized(runner) {
+            return running;
+        }
+    }
+
+    /**
+     *  Retuns the number of this group's jobs currently queued (# waiting +
+     *  # running.)
+     */
+    public int getCount() {
+        synchronized(runner) {
+            return queue.size() + running;
+        }
+    }
+
+    /**
+     *  Ignores jobs queued to this group from now on.  Jobs already queued
+     *  still run.  The runner itself keeps running.
+     */
+    public void shutdown() {
+        runner.shutdown(this);
+    }
+
+    /**
+     *  Shuts down, waits up to <code>timeout</code> for this group's queued
+     *  and running jobs to finish, then drops the ones not started and
+     *  interrupts the rest.
+     *
+     *  @return The number of runs abandoned: those never started plus those
+     *  still running at the deadline.
+     */
+    public int shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        return runner.shutdown(this, timeout, unit);
+    }
+
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    /**
+     *  Returns true once this group, or the runner, is shut down and none
+     *  of its jobs are waiting or running.
+     */
+    public boolean isTerminated() {
+        return runner.isTerminated(this);
+    }
+
+    /**
+     *  Waits until <code>isTerminated()</code> or the timeout passes.
+     *
+     *  @return true if terminated.
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return runner.awaitTermination(this, timeout, unit);
+    }
+
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2002 John Vasileff
+ *
+ * Permission  is  hereby  granted,  free of  charge,  to  any  person
+ * obtaining  a copy  of  this software  and associated  documentation
+ * files   (the  "Software"),   to  deal   in  the   Software  without
+ * restriction, including without limitation  the rights to use, copy,
+ * modify, merge, publish, distribute,  sublicense, and/or sell copies
+ * of the  Software, and  to permit  persons to  whom the  Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The  above copyright  notice and  this permission  notice shall  be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE  SOFTWARE  IS  PROVIDED  "AS   IS",  WITHOUT  WARRANTY  OF  ANY
+ * KIND,  EXPRESS  OR  IMPLIED,  INCLUDING  BUT  NOT  LIMITED  TO  THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES  OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT,  TORT OR OTHERWISE, ARISING FROM, OUT  OF OR IN
+ * CONNECTION WITH  THE SOFTWARE OR THE  USE OR OTHER DEALINGS  IN THE
+ * SOFTWARE.
+ */
+
+package org.anodyneos.jse;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.anodyneos.jse.TestSupport.check;
+
+/**
+ *  Checks each <code>JseRunner</code> overflow policy: which of ten jobs
+ *  queued into a queue of five run, on which thread, and what is counted.
+ *  Also checks that a job run by the caller may throw an
+ *  <code>Error</code> without harming the caller or the runner.
+ */
+public class JseRunnerOverflowTest {
+
+    private static final int JOBS = 10;
+    private static final int CAPACITY = 5;
+
+    public static void main(String[] args) throws InterruptedException {
+        run(JseRunner.OVERFLOW_DROP_NEWEST, "0 1 2 3 4", 5, 0, 0, 0);
+        run(JseRunner.OVERFLOW_DROP_OLDEST, "5 6 7 8 9", 0, 5, 0, 0);
+        run(JseRunner.OVERFLOW_BLOCK, "0 1 2 3 4 5 6 7 8 9", 0, 0, 1, 0);
+        run(JseRunner.OVERFLOW_CALLER_RUNS, "5c 6c 7c 8c 9c 0 1 2 3 4", 0, 0, 0, 5);
+
+        // a caller-runs job that throws an Error
+        JseRunner runner = new JseRunner();
+        runner.setDaemon(true);
+        runner.setMaxConcurrent(0);
+        runner.setQueueCapacity(0);
+        runner.setOverflowPolicy(JseRunner.OVERFLOW_CALLER_RUNS);
+        runner.start();
+        final List<Throwable> caught = Collections.synchronizedList(new ArrayList<Throwable>());
+        Thread.UncaughtExceptionHandler handler = Thread.currentThread().getUncaughtExceptionHandler();
+        Thread.currentThread().setUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+            @Override
+            public void uncaughtException(Thread t, Throwable e) {
+                caught.add(e);
+            }
+        });
+        Runnable failing = new Runnable() {
+            @Override
+            public void run() {
+                throw new AssertionError("expected");
+            }
+        };
+        try {
+            runner.queue(failing);
+            runner.queue(failing);
+        } finally {
+            Thread.currentThread().setUncaughtExceptionHandler(handler);
+        }
+        check(caught.size() == 2, "caught " + caught.size() + " errors");
+        check(runner.getCount() == 0 && runner.getCount(failing) == 0, "failed runs still counted");
+        check(runner.getCallerRunsCount() == 2, "callerRuns " + runner.getCallerRunsCount());
+        runner.shutdown(5, TimeUnit.SECONDS);
+
+        System.out.println("OK");
+    }
+
+    /**
+     *  Queues ten jobs while the runner may start none, then lets it run
+     *  them, and checks the order they ran in (a <code>c</code> marks a job
+     *  run by the caller) and the counts.
+     */
+    private static void run(int policy, String expected, long droppedNewest,
+            long droppedOldest, long minBlocked, long callerRuns) throws InterruptedException {
+        final JseRunner runner = new JseRunner();
+        runner.setDaemon(true);
+        runner.setMaxConcurrent(0);
+        runner.setQueueCapacity(CAPACITY);
+        runner.setOverflowPolicy(policy);
+        runner.start();
+        final Thread caller = Thread.currentThread();
+        final List<String> ran = Collections.synchronizedList(new ArrayList<String>());
+        final List<Runnable> jobs = new ArrayList<Runnable>();
+        for (int i = 0; i < JOBS; i++) {
+            final String name = String.valueOf(i);
+            jobs.add(new Runnable() {
+                @Override
+                public void run() {
+                    ran.add(Thread.currentThread() == caller ? name + "c" : name);
+                }
+            });
+        }
+
+        if (policy == JseRunner.OVERFLOW_BLOCK) {
+            Thread producer = new Thread() {
+                @Override
+                public void run() {
+                    runner.queue(jobs);
+                }
+            };
+            producer.start();
+            Thread.sleep(200);
+            check(producer.isAlive(), "producer did not block");
+            check(runner.getWaitingCount() == CAPACITY, "waiting " + runner.getWaitingCount());
+            runner.setMaxConcurrent(1);
+            producer.join(5000);
+            check(!producer.isAlive(), "producer still blocked");
+        } else {
+            runner.queue(jobs);
+            runner.setMaxConcurrent(1);
+        }
+        check(runner.shutdown(5, TimeUnit.SECONDS) == 0, "jobs left after shutdown");
+
+        String actual = join(ran);
+        check(actual.equals(expected), "policy " + policy + " ran " + actual + " instead of " + expected);
+        check(runner.getDroppedNewestCount() == droppedNewest, "policy " + policy
+                + " droppedNewest " + runner.getDroppedNewestCount());
+        check(runner.getDroppedOldestCount() == droppedOldest, "policy " + policy
+                + " droppedOldest " + runner.getDroppedOldestCount());
+        check(runner.getDroppedCount() == droppedNewest + droppedOldest, "policy " + policy
+                + " dropped " + runner.getDroppedCount());
+        check(runner.getBlockedCount() >= minBlocked, "policy " + policy
+                + " blocked " + runner.getBlockedCount());
+        check(runner.getCallerRunsCount() == callerRuns, "policy " + policy
+                + " callerRuns " + runner.getCallerRunsCount());
+        System.out.println("Policy " + policy + " ran: " + actual);
+    }
+
+    private static String join(List<String> strings) {
+        StringBuilder sb = new StringBuilder();
+        for (String s : strings) {
+            if (sb.length() > 0) {
+                sb.append(' ');
+            }
+            sb.append(s);
+        }
+        return sb.toString();
+    }
+}
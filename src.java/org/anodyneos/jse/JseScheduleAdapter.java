@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2002 John Vasileff
+ *
+ * Permission  is  hereby  granted,  free of  charge,  to  any  person
+ * obtaining  a copy  of  this software  and associated  documentation
+ * files   (the  "Software"),   to  deal   in  the   Software  without
+ * restriction, including without limitation  the rights to use, copy,
+ * modify, merge, publish, distribute,  sublicense, and/or sell copies
+ * of the  Software, and  to permit  persons to  whom the  Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The  above copyright  notice and  this permission  notice shall  be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE  SOFTWARE  IS  PROVIDED  "AS   IS",  WITHOUT  WARRANTY  OF  ANY
+ * KIND,  EXPRESS  OR  IMPLIED,  INCLUDING  BUT  NOT  LIMITED  TO  THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES  OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT,  TORT OR OTHERWISE, ARISING FROM, OUT  OF OR IN
+ * CONNECTION WITH  THE SOFTWARE OR THE  USE OR OTHER DEALINGS  IN THE
+ * SOFTWARE.
+ */
+
+package org.anodyneos.jse;
+
+import java.util.Date;
+
+/**
+ *  Runs a plain <code>JseSchedule</code> as a
+ *  <code>JseExtendedSchedule</code> with the default settings: every late
+ *  run fires, <code>DEFAULT_MISFIRE_THRESHOLD</code>, no slack, priority 0,
+ *  no deadline and no limit on concurrent runs.
+ *
+ *  <p>The service calls a schedule from several threads: the scheduler,
+ *  the prefetch thread, job threads and threads creating or rescheduling
+ *  timers.  A plain schedule was never asked to allow that, so every call
+ *  to it synchronizes on the schedule.</p>
+ */
+final class JseScheduleAdapter implements JseExtendedSchedule {
+
+    private final JseSchedule schedule;
+
+    private JseScheduleAdapter(JseSchedule schedule) {
+        this.schedule = schedule;
+    }
+
+    /**
+     *  Returns <code>schedule</code> itself if it is a
+     *  <code>JseExtendedSchedule</code>, else wraps it.
+     */
+    static JseExtendedSchedule adapt(JseSchedule schedule) {
+        if (schedule instanceof JseExtendedSchedule) {
+            return (JseExtendedSchedule) schedule;
+        } else {
+            return new JseScheduleAdapter(schedule);
+        }
+    }
+
+    @Override
+    public Date getNextTimeout(Date start) {
+        synchronized(schedule) {
+            return schedule.getNextTimeout(start);
+        }
+    }
+
+    @Override
+    public int getNumberOfIterations() {
+        synchronized(schedule) {
+            return schedule.getNumberOfIterations();
+        }
+    }
+
+    @Override
+    public int getMaxQueue() {
+        synchronized(schedule) {
+            return schedule.getMaxQueue();
+        }
+    }
+
+    @Override
+    public long getNextTimeoutMillis(long startMillis) {
+        Date next;
+        synchronized(schedule) {
+            next = schedule.getNextTimeout(new Date(startMillis));
+        }
+        return null == next ? NEVER : next.getTime();
+    }
+
+    @Override
+    public long[] getNextTimeouts(long startMillis, int n) {
+        long[] timeouts = new long[n];
+        int count = 0;
+        long next = startMillis;
+        synchronized(schedule) {
+            while (count < n) {
+                next = getNextTimeoutMillis(next);
+                if (NEVER == next) {
+                    long[] fewer = new long[count];
+                    System.arraycopy(timeouts, 0, fewer, 0, count);
+                    return fewer;
+                }
+                timeouts[count++] = next++;
+            }
+        }
+        return timeouts;
+    }
+
+    @Override
+    public int getMisfirePolicy() {
+        return MISFIRE_FIRE_ALL;
+    }
+
+    @Override
+    public long getMisfireThreshold() {
+        return DEFAULT_MISFIRE_THRESHOLD;
+    }
+
+    @Override
+    public long getSlack() {
+        return 0;
+    }
+
+    @Override
+    public int getPriority() {
+        return 0;
+    }
+
+    @Override
+    public long getDeadline() {
+        return 0;
+    }
+
+    @Override
+    public int getMaxConcurrent() {
+        return -1;
+    }
+
+}
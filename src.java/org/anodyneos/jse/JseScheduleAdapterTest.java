@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2002 John Vasileff
+ *
+ * Permission  is  hereby  granted,  free of  charge,  to  any  person
+ * obtaining  a copy  of  this software  and associated  documentation
+ * files   (the  "Software"),   to  deal   in  the   Software  without
+ * restriction, including without limitation  the rights to use, copy,
+ * modify, merge, publish, distribute,  sublicense, and/or sell copies
+ * of the  Software, and  to permit  persons to  whom the  Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The  above copyright  notice and  this permission  notice shall  be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE  SOFTWARE  IS  PROVIDED  "AS   IS",  WITHOUT  WARRANTY  OF  ANY
+ * KIND,  EXPRESS  OR  IMPLIED,  INCLUDING  BUT  NOT  LIMITED  TO  THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES  OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT,  TORT OR OTHERWISE, ARISING FROM, OUT  OF OR IN
+ * CONNECTION WITH  THE SOFTWARE OR THE  USE OR OTHER DEALINGS  IN THE
+ * SOFTWARE.
+ */
+
+package org.anodyneos.jse;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.anodyneos.jse.TestSupport.Every;
+
+import static org.anodyneos.jse.TestSupport.HOUR;
+import static org.anodyneos.jse.TestSupport.check;
+
+/**
+ *  Checks that a plain <code>JseSchedule</code>, which does not implement
+ *  <code>JseExtendedSchedule</code>, gets the default settings and runs
+ *  through <code>JseTimerService</code> at exactly its times, and that
+ *  it is never called by two threads at once.
+ */
+public class JseScheduleAdapterTest {
+
+    private static final long START = 1000L * 86400000L;
+    private static final long END = START + 48 * HOUR;
+
+    public static void main(String[] args) throws InterruptedException {
+        Every hourly = new Every(HOUR, END);
+        JseExtendedSchedule schedule = JseScheduleAdapter.adapt(hourly);
+        check(JseScheduleAdapter.adapt(schedule) == schedule, "adapted twice");
+        check(schedule.getMisfirePolicy() == JseExtendedSchedule.MISFIRE_FIRE_ALL, "misfire policy");
+        check(schedule.getMisfireThreshold() == JseExtendedSchedule.DEFAULT_MISFIRE_THRESHOLD,
+                "misfire threshold");
+        check(schedule.getSlack() == 0 && schedule.getPriority() == 0
+                && schedule.getDeadline() == 0 && schedule.getMaxConcurrent() == -1, "defaults");
+        check(schedule.getNumberOfIterations() == -1 && schedule.getMaxQueue() == -1, "passed through");
+
+        check(schedule.getNextTimeoutMillis(START + 1) == START + HOUR, "next time");
+        check(schedule.getNextTimeoutMillis(END + 1) == JseExtendedSchedule.NEVER, "time after the end");
+        long[] times = schedule.getNextTimeouts(END - 2 * HOUR, 5);
+        check(times.length == 3 && times[0] == END - 2 * HOUR && times[2] == END, "times up to the end");
+
+        for (int queueType = JseTimerService.QUEUE_TREE;
+                queueType <= JseTimerService.QUEUE_TIMING_WHEEL; queueType++) {
+            JseVirtualClock clock = new JseVirtualClock(START, END);
+            JseTimerService service = new JseTimerService(queueType, false, 1, clock);
+            service.setDaemon(true);
+            final List<Long> fired = Collections.synchronizedList(new ArrayList<Long>());
+            service.createTimer(new JseDateAwareJob() {
+                @Override
+                public void run(Date date) {
+                    fired.add(date.getTime());
+                }
+            }, hourly);
+            service.start();
+            check(clock.awaitEnd(60000), "clock did not reach the end");
+            // jobs run in real time, after the clock has moved on
+            for (int i = 0; i < 100 && fired.size() < 49; i++) {
+                Thread.sleep(50);
+            }
+            service.shutdown(5, TimeUnit.SECONDS);
+            check(fired.size() == 49, "queue " + queueType + " fired " + fired.size() + " times");
+            for (int i = 0; i < fired.size(); i++) {
+                check(fired.get(i) == START + i * HOUR, "queue " + queueType + " fired at " + fired.get(i));
+            }
+        }
+        checkOneCallAtATime();
+        System.out.println("OK");
+    }
+
+    /**
+     *  Calls an adapted schedule from several threads at once and checks
+     *  that the plain schedule never sees two calls overlap.
+     */
+    private static void checkOneCallAtATime() throws InterruptedException {
+        final AtomicInteger inside = new AtomicInteger();
+        final AtomicInteger overlaps = new AtomicInteger();
+        final JseExtendedSchedule schedule = JseScheduleAdapter.adapt(new Every(HOUR) {
+            @Override
+            public Date getNextTimeout(Date start) {
+                if (inside.incrementAndGet() > 1) {
+                    overlaps.incrementAndGet();
+                }
+                Thread.yield();
+                inside.decrementAndGet();
+                return super.getNextTimeout(start);
+            }
+        });
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            final boolean bulk = i % 2 == 0;
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 2000; j++) {
+                        if (bulk) {
+                            schedule.getNextTimeouts(START + j * HOUR, 4);
+                        } else {
+                            schedule.getNextTimeoutMillis(START + j * HOUR);
+                        }
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (int i = 0; i < threads.length; i++) {
+            threads[i].join();
+        }
+        check(overlaps.get() == 0, overlaps.get() + " overlapping calls");
+    }
+}
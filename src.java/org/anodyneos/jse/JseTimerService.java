@@ -25,108 +25,1223 @@
 package org.anodyneos.jse;
 
 import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
-import java.util.LinkedList;
+import java.util.HashSet;
 import java.util.List;
-import java.util.TreeSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  *  Creates and manages <code>Timer</code>s.  <code>Timer</code>s are capable
  *  of running <code>Runnables</code> and <code>JseDateAwareJob</code>s on a
  *  schedule specified by a <code>JseSchedule</code>.
  *
+ *  <p>Timers are spread by hash across one or more shards, each with its
+ *  own ordering structure and scheduler thread; this thread runs the first
+ *  shard.  All shards share one <code>JseRunner</code>, so counts and
+ *  <code>maxConcurrent</code> apply to the service as a whole.</p>
+ *
+ *  <p>By default timers are created while holding the shard's monitor,
+ *  which the scheduler loop also holds except while waiting.  In lock-free
+ *  mode the scheduler thread alone owns the ordering structure.  Other
+ *  threads hand new timers to it through a non-blocking queue and wake it with <code>LockSupport.unpark</code>, so registration
+ *  never blocks behind the scheduler loop.</p>
+ *
+ *  <p>Waits are measured with <code>System.nanoTime()</code> and, while a
+ *  shard has timers, are cut into slices no longer than the clock jump
+ *  threshold.  After each slice the scheduler compares how far the clock
+ *  moved with how much time really passed.  A difference above the
+ *  threshold, such as an NTP step or a suspended VM, counts as a clock jump
+ *  and is handled according to the clock jump policy.</p>
+ *
+ *  <p>A schedule with slack lets its runs start up to that much late.  The
+ *  scheduler then orders the timer by its fire time rounded up to a power
+ *  of two no larger than the slack.  Timers due close together share a
+ *  rounded time, so they are dispatched by a single wakeup.</p>
+ *
+ *  <p>Cancelling a timer only marks it; nothing is locked.  The scheduler
+ *  drops marked timers as they come due, and once they make up half of a
+ *  shard (and number at least <code>COMPACT_MIN</code>) it rebuilds the
+ *  shard's ordering structure without them.</p>
+ *
+ *  <p>Timers, and the service as a whole, can be paused.  A paused timer is
+ *  taken out of its shard's ordering structure but held by the shard until
+ *  resumed or cancelled, since its <code>JseTimer</code> only references it
+ *  weakly.  Timers are paused, resumed and rescheduled through
+ *  <code>JseExtendedTimer</code>, which every timer returned implements.  A paused service leaves its timers in place but its scheduler
+ *  threads wait without a timeout.  On resume, the runs missed while paused
+ *  are either fired as a backlog or skipped.</p>
+ *
+ *  <p><code>shutdown</code> stops the scheduler threads; runs already
+ *  handed to the runner still complete.  <code>awaitTermination</code> waits
+ *  for them, and <code>shutdown(long, TimeUnit)</code> does both and then
+ *  abandons whatever is left at the deadline.</p>
+ *
+ *  <p>Each service normally has a runner of its own.  Services may instead
+ *  share one runner, each queueing to its own <code>JseRunnerGroup</code>,
+ *  so that threads one service leaves idle go to the others.  Shutting
+ *  down such a service shuts down its group but not the runner.</p>
+ *
  *  @version $Id: JseTimerService.java,v 1.2 2004-05-13 03:42:03 jvas Exp $
  */
 public class JseTimerService extends Thread {
+
+    /**
+     *  Keep timers in a balanced tree.  Adding, cancelling and expiring a
+     *  timer is O(log n).
+     */
+    public static final int QUEUE_TREE = 0;
+
+    /**
+     *  Keep timers in a hierarchical timing wheel.  Adding, cancelling and
+     *  expiring a timer is O(1), which pays off for large numbers of timers.
+     */
+    public static final int QUEUE_TIMING_WHEEL = 1;
+
+    /**
+     *  When the clock jumps, leave fire times alone.  Runs skipped by a
+     *  forward jump all fire at once; a backward jump holds runs back until
+     *  the clock catches up.
+     */
+    public static final int CLOCK_JUMP_FOLLOW = 0;
+
+    /**
+     *  When the clock jumps, compute each timer's next fire time again from
+     *  the new time.  Runs skipped by a forward jump are dropped and a
+     *  backward jump does not hold runs back.
+     */
+    public static final int CLOCK_JUMP_RESCHEDULE = 1;
+
+    public static final long DEFAULT_CLOCK_JUMP_THRESHOLD = 1000;
+
+    /**
+     *  <code>createTimers</code> computes first fire times on several
+     *  threads when given at least this many timers per thread.
+     */
+    private static final int PARALLEL_CHUNK = 1000;
+
+    /**
+     *  Number of fire times each timer keeps computed ahead.  Topped up by
+     *  the prefetch thread when half used.
+     */
+    private static final int PREFETCH = 8;
+
+    /**
+     *  Fewest cancelled timers a shard holds before it is compacted.
+     */
+    public static final int COMPACT_MIN = 1024;
+
+    /**
+     *  Values of JobWrapper.tombstone: not counted yet, counted by
+     *  cancel(), or taken out uncounted by the scheduler.
+     */
+    private static final int UNCOUNTED = 0;
+    private static final int COUNTED = 1;
+    private static final int REMOVED = 2;
+    private static final AtomicIntegerFieldUpdater<JobWrapper> TOMBSTONE =
+            AtomicIntegerFieldUpdater.newUpdater(JobWrapper.class, "tombstone");
+
     private JseRunner runner;
+    /** where runs are queued; the runner's default group unless shared */
+    private JseRunnerGroup group;
+    /** true if runner belongs to other services too */
+    private boolean sharedRunner;
+
+    /** to help JobWrapper compareTo when nextTimes are equal */
+    private AtomicLong idCounter = new AtomicLong(Long.MIN_VALUE);
+
+    private boolean lockFree;
+
+    private JseClock clock;
+
+    /** tops up each timer's FireTimeBuffer off the scheduler threads */
+    private final FireTimePrefetcher prefetcher;
+
+    /** shares the work of large createTimers calls; threads exit when idle */
+    private final ExecutorService bulkExecutor;
+
+    private volatile int clockJumpPolicy = CLOCK_JUMP_FOLLOW;
+    private volatile long clockJumpThreshold = DEFAULT_CLOCK_JUMP_THRESHOLD;
+    private AtomicInteger clockJumpCount = new AtomicInteger();
+
+    private volatile boolean paused;
+    private volatile boolean shutdown;
+
+    private AtomicLong compactionCount = new AtomicLong();
+    private AtomicLong compactedCount = new AtomicLong();
+
+    /**
+     *  Each shard has its own ordering structure and scheduler thread.
+     *  JobWrappers are assigned to shards by hash.  The first shard runs on
+     *  this thread.
+     */
+    private Shard[] shards;
+
+    /**
+     *  Create a new JseTimerService that keeps its timers in a tree.
+     */
+    public JseTimerService() {
+        this(QUEUE_TREE);
+    }
+
+    /**
+     *  Create a new JseTimerService.
+     *
+     *  @param queueType <code>QUEUE_TREE</code> or
+     *  <code>QUEUE_TIMING_WHEEL</code>.
+     */
+    public JseTimerService(int queueType) {
+        this(queueType, false);
+    }
+
+    /**
+     *  Create a new JseTimerService.
+     *
+     *  @param queueType <code>QUEUE_TREE</code> or
+     *  <code>QUEUE_TIMING_WHEEL</code>.
+     *  @param lockFree If true, creating and cancelling timers does not
+     *  synchronize on this service.
+     */
+    public JseTimerService(int queueType, boolean lockFree) {
+        this(queueType, lockFree, 1);
+    }
+
+    /**
+     *  Create a new JseTimerService.
+     *
+     *  @param queueType <code>QUEUE_TREE</code> or
+     *  <code>QUEUE_TIMING_WHEEL</code>.
+     *  @param lockFree If true, creating and cancelling timers does not
+     *  synchronize on this service.
+     *  @param shardCount Number of scheduler threads to spread timers
+     *  across.  Must be at least 1.
+     */
+    public JseTimerService(int queueType, boolean lockFree, int shardCount) {
+        this(queueType, lockFree, shardCount, JseClock.SYSTEM);
+    }
+
+    /**
+     *  Create a new JseTimerService.
+     *
+     *  @param queueType <code>QUEUE_TREE</code> or
+     *  <code>QUEUE_TIMING_WHEEL</code>.
+     *  @param lockFree If true, creating and cancelling timers does not
+     *  synchronize on this service.
+     *  @param shardCount Number of scheduler threads to spread timers
+     *  across.  Must be at least 1.
+     *  @param clock The source of time, such as a
+     *  <code>JseVirtualClock</code> for simulations.
+     */
+    public JseTimerService(int queueType, boolean lockFree, int shardCount, JseClock clock) {
+        this(queueType, lockFree, shardCount, clock, null);
+    }
+
+    /**
+     *  Create a new JseTimerService.
+     *
+     *  @param queueType <code>QUEUE_TREE</code> or
+     *  <code>QUEUE_TIMING_WHEEL</code>.
+     *  @param lockFree If true, creating and cancelling timers does not
+     *  synchronize on this service.
+     *  @param shardCount Number of scheduler threads to spread timers
+     *  across.  Must be at least 1.
+     *  @param clock The source of time, such as a
+     *  <code>JseVirtualClock</code> for simulations.
+     *  @param group The group of a shared runner to queue runs to, or null
+     *  for a runner of this service's own.  The runner must be started and
+     *  shut down by its owner.
+     */
+    public JseTimerService(int queueType, boolean lockFree, int shardCount, JseClock clock,
+            JseRunnerGroup group) {
+        if (queueType != QUEUE_TREE && queueType != QUEUE_TIMING_WHEEL) {
+            throw new IllegalArgumentException("Unknown queue type: " + queueType);
+        }
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("shardCount must be at least 1: " + shardCount);
+        }
+        this.lockFree = lockFree;
+        this.clock = clock;
+        shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard(queueType, i);
+        }
+        if (null == group) {
+            runner = new JseRunner();
+            runner.start();
+            this.group = runner.getDefaultGroup();
+        } else {
+            runner = group.runner;
+            this.group = group;
+            sharedRunner = true;
+        }
+        prefetcher = new FireTimePrefetcher(getName() + "-prefetch");
+        bulkExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, getName() + "-createTimers-"
+                        + count.getAndIncrement());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     *  Adds a JseDateAwareJob with an associated schedule.  If the job is a
+     *  <code>JseBatchDateAwareJob</code> it is given all pending runs in one
+     *  call.
+     *
+     *  @param job The JseDateAwareJob to be run.  Must not be null.
+     *  @param schedule The schedule, must not be null.
+     *  @return The timer, which is a <code>JseExtendedTimer</code>.
+     */
+    public JseTimer createTimer(JseDateAwareJob daJob, JseSchedule schedule) {
+        checkNotShutdown();
+        JobWrapper jw = new JobWrapper(daJob, schedule);
+        jw.shard.submit(jw);
+        return jw.getTimer();
+    }
+
+    /**
+     *  Adds a Runnable with an associated schedule.
+     *
+     *  @param job The Runnable to be run.  Must not be null.
+     *  @param schedule The schedule, must not be null.
+     *  @return The timer, which is a <code>JseExtendedTimer</code>.
+     */
+    public JseTimer createTimer(Runnable job, JseSchedule schedule) {
+        checkNotShutdown();
+        JobWrapper jw = new JobWrapper(job, schedule);
+        jw.shard.submit(jw);
+        return jw.getTimer();
+    }
+
+    /**
+     *  Adds many jobs at once.  First fire times are computed in parallel
+     *  for large collections, and each scheduler takes its timers in one
+     *  hand-off and is woken once.  The timers still go into the ordering
+     *  structure one at a time, so adding m timers to a shard holding n is
+     *  O(m log(n + m)) with <code>QUEUE_TREE</code> and O(m) with
+     *  <code>QUEUE_TIMING_WHEEL</code>.
+     *
+     *  @param specs The jobs and their schedules.
+     *  @return The timers, in the iteration order of <code>specs</code>.
+     *  Each is a <code>JseExtendedTimer</code>.
+     */
+    public List<JseTimer> createTimers(Collection<JseTimerSpec> specs) {
+        checkNotShutdown();
+        JseTimerSpec[] specArray = specs.toArray(new JseTimerSpec[specs.size()]);
+        JobWrapper[] wrappers = new JobWrapper[specArray.length];
+        wrapAll(specArray, wrappers);
+
+        if (shards.length == 1) {
+            shards[0].submitAll(Arrays.asList(wrappers));
+        } else {
+            List<List<JobWrapper>> perShard = new ArrayList<List<JobWrapper>>(shards.length);
+            for (int i = 0; i < shards.length; i++) {
+                perShard.add(new ArrayList<JobWrapper>(wrappers.length / shards.length + 1));
+            }
+            for (int i = 0; i < wrappers.length; i++) {
+                perShard.get(wrappers[i].shard.index).add(wrappers[i]);
+            }
+            for (int i = 0; i < shards.length; i++) {
+                shards[i].submitAll(perShard.get(i));
+            }
+        }
+
+        JseTimer[] timers = new JseTimer[wrappers.length];
+        for (int i = 0; i < wrappers.length; i++) {
+            timers[i] = wrappers[i].getTimer();
+        }
+        return Collections.unmodifiableList(Arrays.asList(timers));
+    }
+
+    /**
+     *  Creates a JobWrapper for each spec, splitting the work across
+     *  threads when there are enough specs.
+     */
+    private void wrapAll(final JseTimerSpec[] specs, final JobWrapper[] wrappers) {
+        int threads = Math.min(Runtime.getRuntime().availableProcessors(),
+                specs.length / PARALLEL_CHUNK);
+        if (threads < 2) {
+            wrapRange(specs, wrappers, 0, specs.length);
+            return;
+        }
+
+        final int chunk = (specs.length + threads - 1) / threads;
+        List<Future<?>> futures = new ArrayList<Future<?>>(threads - 1);
+        Throwable failure = null;
+        try {
+            for (int i = 1; i < threads; i++) {
+                final int from = i * chunk;
+                final int to = Math.min(specs.length, from + chunk);
+                futures.add(bulkExecutor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        wrapRange(specs, wrappers, from, to);
+                    }
+                }));
+            }
+            // this thread takes the first chunk
+            wrapRange(specs, wrappers, 0, chunk);
+        } catch (RuntimeException e) {
+            failure = e;
+        } catch (Error e) {
+            failure = e;
+        } finally {
+            // wait for every chunk, even after a failure, so none is still
+            // being filled in once this returns
+            boolean interrupted = false;
+            for (int i = 0; i < futures.size(); i++) {
+                while (true) {
+                    try {
+                        futures.get(i).get();
+                        break;
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    } catch (ExecutionException e) {
+                        if (null == failure) {
+                            failure = e.getCause();
+                        }
+                        break;
+                    }
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure instanceof Error) {
+            throw (Error) failure;
+        }
+    }
+
+    private void wrapRange(JseTimerSpec[] specs, JobWrapper[] wrappers, int from, int to) {
+        for (int i = from; i < to; i++) {
+            JseTimerSpec spec = specs[i];
+            if (null != spec.getDateAwareJob()) {
+                wrappers[i] = new JobWrapper(spec.getDateAwareJob(), spec.getSchedule());
+            } else {
+                wrappers[i] = new JobWrapper(spec.getJob(), spec.getSchedule());
+            }
+        }
+    }
+
+    /**
+     *  Returns true if timers are created without
+     *  synchronizing on a shard's monitor.
+     */
+    public boolean isLockFree() {
+        return lockFree;
+    }
+
+    public JseClock getClock() {
+        return clock;
+    }
+
+    /**
+     *  Sets what happens to fire times when the clock jumps.
+     *
+     *  @param policy <code>CLOCK_JUMP_FOLLOW</code> (the default) or
+     *  <code>CLOCK_JUMP_RESCHEDULE</code>.
+     */
+    public void setClockJumpPolicy(int policy) {
+        if (policy != CLOCK_JUMP_FOLLOW && policy != CLOCK_JUMP_RESCHEDULE) {
+            throw new IllegalArgumentException("Unknown clock jump policy: " + policy);
+        }
+        this.clockJumpPolicy = policy;
+    }
+
+    public int getClockJumpPolicy() {
+        return clockJumpPolicy;
+    }
+
+    /**
+     *  Sets how far, in milliseconds, the clock must move apart from
+     *  <code>System.nanoTime()</code> to count as a jump.  Also the longest
+     *  a scheduler with timers waits before checking; one without timers,
+     *  or paused, waits until woken.  0 or less turns detection off and
+     *  lets the scheduler wait for as long as it has nothing to do.
+     *  Default is <code>DEFAULT_CLOCK_JUMP_THRESHOLD</code>.  Not used with
+     *  a <code>JseVirtualClock</code>, whose time is meant to move.
+     */
+    public void setClockJumpThreshold(long millis) {
+        this.clockJumpThreshold = millis;
+    }
+
+    public long getClockJumpThreshold() {
+        return clockJumpThreshold;
+    }
+
+    /**
+     *  Returns the number of clock jumps detected so far, over all shards.
+     */
+    public int getClockJumpCount() {
+        return clockJumpCount.get();
+    }
+
+    /**
+     *  Returns roughly how many cancelled timers are still held by the
+     *  scheduler, waiting to come due or be compacted away.
+     */
+    public int getTombstoneCount() {
+        int count = 0;
+        for (int i = 0; i < shards.length; i++) {
+            count += Math.max(0, shards[i].tombstones.get());
+        }
+        return count;
+    }
+
+    /**
+     *  Returns roughly how many timers the schedulers hold, as of each
+     *  one's last pass.  Cancelled timers not yet removed are counted,
+     *  paused ones are not.
+     */
+    public int getTimerCount() {
+        int count = 0;
+        for (int i = 0; i < shards.length; i++) {
+            count += shards[i].timerCount;
+        }
+        return count;
+    }
+
+    /**
+     *  Returns the number of times a shard has been compacted.
+     */
+    public long getCompactionCount() {
+        return compactionCount.get();
+    }
+
+    /**
+     *  Returns the number of cancelled timers removed by compaction.
+     */
+    public long getCompactedCount() {
+        return compactedCount.get();
+    }
+
+    /**
+     *  Returns the number of scheduler threads.
+     */
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    /**
+     *  Retuns the number of jobs currently waiting to be run.
+     */
+    public int getWaitingCount() {
+        return sharedRunner ? group.getWaitingCount() : runner.getWaitingCount();
+    }
+
+    /**
+     *  Retuns the number of jobs is currently running.
+     */
+    public int getRunningCount() {
+        return sharedRunner ? group.getRunningCount() : runner.getRunningCount();
+    }
+
+    /**
+     *  Retuns the number jobs currently queued (# waiting + # running.)
+     */
+    public int getCount() {
+        return sharedRunner ? group.getCount() : runner.getCount();
+    }
+
+    /**
+     *  Sets the most jobs that may run at once; with a shared runner, the
+     *  most of this service's group.
+     */
+    public void setMaxConcurrent(int max) {
+        if (sharedRunner) {
+            group.setMaxConcurrent(max);
+        } else {
+            runner.setMaxConcurrent(max);
+        }
+    }
+
+    public int getMaxConcurrent() {
+        return sharedRunner ? group.getMaxConcurrent() : runner.getMaxConcurrent();
+    }
+
+    /**
+     *  Returns the runner this service queues runs to.  With a shared
+     *  runner, the settings below that pass through to the runner apply to
+     *  every service sharing it.
+     */
+    public JseRunner getRunner() {
+        return runner;
+    }
+
+    /**
+     *  @see JseRunner#setPoolSize(int)
+     */
+    public void setPoolSize(int poolSize) {
+        runner.setPoolSize(poolSize);
+    }
+
+    public int getPoolSize() {
+        return runner.getPoolSize();
+    }
+
+    /**
+     *  @see JseRunner#setKeepAlive(long, TimeUnit)
+     */
+    public void setKeepAlive(long time, TimeUnit unit) {
+        runner.setKeepAlive(time, unit);
+    }
+
+    public long getKeepAlive(TimeUnit unit) {
+        return runner.getKeepAlive(unit);
+    }
+
+    /**
+     *  @see JseRunner#setThreadFactory(ThreadFactory)
+     */
+    public void setThreadFactory(ThreadFactory threadFactory) {
+        runner.setThreadFactory(threadFactory);
+    }
+
+    public ThreadFactory getThreadFactory() {
+        return runner.getThreadFactory();
+    }
+
+    /**
+     *  @see JseRunner#setVirtualThreads(boolean)
+     */
+    public boolean setVirtualThreads(boolean virtual) {
+        return runner.setVirtualThreads(virtual);
+    }
+
+    public boolean isVirtualThreads() {
+        return runner.isVirtualThreads();
+    }
+
+    /**
+     *  @see JseRunner#setQueueOrder(int)
+     */
+    public void setQueueOrder(int order) {
+        runner.setQueueOrder(order);
+    }
+
+    public int getQueueOrder() {
+        return runner.getQueueOrder();
+    }
+
+    /**
+     *  @see JseRunner#setQueueCapacity(int)
+     */
+    public void setQueueCapacity(int capacity) {
+        runner.setQueueCapacity(capacity);
+    }
+
+    public int getQueueCapacity() {
+        return runner.getQueueCapacity();
+    }
+
+    /**
+     *  Sets what happens to runs handed to a full runner queue.  With
+     *  <code>JseRunner.OVERFLOW_BLOCK</code> the scheduler thread waits for
+     *  room; with <code>JseRunner.OVERFLOW_CALLER_RUNS</code> it runs the job
+     *  itself.  Either way other timers of the shard fire late meanwhile.
+     *
+     *  @see JseRunner#setOverflowPolicy(int)
+     */
+    public void setOverflowPolicy(int policy) {
+        runner.setOverflowPolicy(policy);
+    }
+
+    public int getOverflowPolicy() {
+        return runner.getOverflowPolicy();
+    }
+
+    /**
+     *  @see JseRunner#setForkJoin(int)
+     */
+    public boolean setForkJoin(int parallelism) {
+        return runner.setForkJoin(parallelism);
+    }
+
+    public boolean isForkJoin() {
+        return runner.isForkJoin();
+    }
+
+    /**
+     *  Stops all timers of this service from firing until
+     *  <code>resume</code> is called.  Runs already handed to the runner
+     *  still run.
+     */
+    public void pause() {
+        paused = true;
+        for (int i = 0; i < shards.length; i++) {
+            shards[i].wake();
+        }
+    }
+
+    /**
+     *  Lets timers fire again after <code>pause</code>.
+     *
+     *  @param skipMissed If true, runs that fell due while paused are
+     *  dropped.  Otherwise they fire at once as a backlog, subject to each
+     *  schedule's misfire policy.
+     */
+    public void resume(boolean skipMissed) {
+        for (int i = 0; i < shards.length; i++) {
+            shards[i].skipMissed = skipMissed;
+        }
+        paused = false;
+        for (int i = 0; i < shards.length; i++) {
+            shards[i].wake();
+        }
+    }
+
+    public boolean isPaused() {
+        return paused;
+    }
+
+    /**
+     *  Has the prefetch thread refill <code>times</code>.
+     */
+    private void prefetch(FireTimeBuffer times) {
+        prefetcher.prefetch(times);
+    }
+
+    private void checkNotShutdown() {
+        if (shutdown) {
+            throw new IllegalStateException("JseTimerService has been shut down: " + getName());
+        }
+    }
+
+    /**
+     *  Stops firing timers.  The scheduler threads exit and the runner is
+     *  shut down once they have, but runs already handed to it still
+     *  complete.  Timers can no longer be created.
+     */
+    public void shutdown() {
+        shutdown = true;
+        for (int i = 0; i < shards.length; i++) {
+            shards[i].wake();
+        }
+        prefetcher.shutdown();
+        bulkExecutor.shutdown();
+        if (!isAlive()) {
+            // not started, or already finished
+            for (int i = 0; i < shards.length; i++) {
+                shards[i].unregister();
+            }
+            shutdownRunner();
+        }
+    }
+
+    /**
+     *  Shuts down and waits up to <code>timeout</code> for queued and
+     *  running jobs to finish.  Jobs not started by then are dropped and
+     *  running ones are interrupted.
+     *
+     *  @return The number of runs abandoned: those never started plus those
+     *  still running at the deadline.
+     */
+    public int shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        shutdown();
+        if (awaitTermination(timeout, unit)) {
+            return 0;
+        }
+        return sharedRunner ? group.shutdown(0, TimeUnit.NANOSECONDS)
+                : runner.shutdown(0, TimeUnit.NANOSECONDS);
+    }
+
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    /**
+     *  Returns true once shut down, the scheduler threads have exited and no
+     *  runs are waiting or running.
+     */
+    public boolean isTerminated() {
+        if (!shutdown) {
+            return false;
+        }
+        for (int i = 0; i < shards.length; i++) {
+            if (shards[i].thread.isAlive()) {
+                return false;
+            }
+        }
+        return sharedRunner ? group.isTerminated() : runner.isTerminated();
+    }
+
+    /**
+     *  Waits until <code>isTerminated()</code> or the timeout passes.  Does
+     *  not itself shut down.
+     *
+     *  @return true if terminated.
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (int i = 0; i < shards.length; i++) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return isTerminated();
+            }
+            TimeUnit.NANOSECONDS.timedJoin(shards[i].thread, remaining);
+        }
+        long remaining = Math.max(0, deadline - System.nanoTime());
+        return sharedRunner ? group.awaitTermination(remaining, TimeUnit.NANOSECONDS)
+                : runner.awaitTermination(remaining, TimeUnit.NANOSECONDS);
+    }
+
+    /** shuts down this service's group of a shared runner, else the runner */
+    private void shutdownRunner() {
+        if (sharedRunner) {
+            group.shutdown();
+        } else {
+            runner.shutdown();
+        }
+    }
+
+    /**
+     *  Starts a thread for each additional shard, then runs the first shard.
+     *  Returns after <code>shutdown</code>, once every shard has stopped.
+     */
+    @Override
+    public void run() {
+        for (int i = 1; i < shards.length; i++) {
+            Thread thread = shards[i].thread;
+            thread.setDaemon(isDaemon());
+            thread.start();
+        }
+        shards[0].run();
+        boolean interrupted = false;
+        for (int i = 1; i < shards.length; i++) {
+            while (shards[i].thread.isAlive()) {
+                try {
+                    shards[i].thread.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        shutdownRunner();
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     *  A scheduler loop with its own ordering structure.  By default timers
+     *  are added and removed while holding the shard's monitor, which the
+     *  loop also holds except while waiting.  In lock-free mode only the
+     *  shard's thread touches <code>managedJobs</code>; other threads pass
+     *  it work through non-blocking queues.
+     */
+    private final class Shard implements Runnable {
+
+        private final int index;
+
+        /** this service for the first shard */
+        private final Thread thread;
+
+        /**
+         *  Tracks all actively managed jobs.  Values are JobWrappers.
+         */
+        private TimerQueue managedJobs;
+
+        /**
+         *  New JobWrappers not yet applied to
+         *  <code>managedJobs</code>.  Only used in lock-free mode.
+         */
+        private ConcurrentLinkedQueue<JobWrapper> pendingJobs = new ConcurrentLinkedQueue<JobWrapper>();
+
+        /**
+         *  Batches of new JobWrappers not yet applied to
+         *  <code>managedJobs</code>.  Only used in lock-free mode.
+         */
+        private ConcurrentLinkedQueue<List<JobWrapper>> pendingBatches = new ConcurrentLinkedQueue<List<JobWrapper>>();
+
+        /**
+         *  Runs found due in one pass of the scheduler loop; handed to the
+         *  runner together.  Only accessed by the scheduler.
+         */
+        private ArrayList<JobWrapper> batch = new ArrayList<JobWrapper>();
+
+        /** clock and System.nanoTime() at the previous pass, for jump detection */
+        private long lastMillis;
+        private long lastNanos;
+        /** true if the previous pass skipped the clock ahead on purpose */
+        private boolean skipped = true;
+
+        /**
+         *  Cancelled JobWrappers in <code>managedJobs</code>.  A timer
+         *  cancelled just as the scheduler adds it may go uncounted.
+         */
+        private AtomicInteger tombstones = new AtomicInteger();
+
+        /** size of <code>managedJobs</code> as of the last pass */
+        private volatile int timerCount;
+
+        /** set by resume(true); the next pass drops runs missed while paused */
+        private volatile boolean skipMissed;
 
-    /** to help JobWrapper compareTo when nextDates are equal */
-    private long idCounter = Long.MIN_VALUE;
+        /**
+         *  Paused JobWrappers, which are not in <code>managedJobs</code> but
+         *  must stay reachable until resumed or cancelled.  Only accessed by
+         *  the scheduler, or while holding this shard's monitor.
+         */
+        private HashSet<JobWrapper> pausedJobs = new HashSet<JobWrapper>();
 
-    /**
-     *  Tracks all actively managed jobs.  Values are JobWrappers.
-     */
-    private TreeSet<JobWrapper> managedJobs = new TreeSet<JobWrapper>();
+        /** registration with a JseVirtualClock, else null */
+        private final JseVirtualClock.Waiter waiter;
 
-    /**
-     *  Create a new JseTimerService.
-     */
-    public JseTimerService() {
-        runner = new JseRunner();
-        runner.start();
-    }
+        /**
+         *  Wakeups of other shards sharing a JseVirtualClock, run by the
+         *  scheduler after leaving this shard's monitor.  Only accessed by
+         *  the scheduler.
+         */
+        private ArrayList<Runnable> wakeups = new ArrayList<Runnable>();
 
-    /**
-     *  Adds a JseDateAwareJob with an associated schedule.
-     *
-     *  @param job The JseDateAwareJob to be run.  Must not be null.
-     *  @param schedule The schedule, must not be null.
-     */
-    public synchronized JseTimer createTimer(JseDateAwareJob daJob, JseSchedule schedule) {
-        JseTimer timer = new JobWrapper(daJob, schedule).getTimer();
-        this.notify();
-        return timer;
-    }
+        private Shard(int queueType, int index) {
+            this.index = index;
+            if (index == 0) {
+                thread = JseTimerService.this;
+            } else {
+                thread = new Thread(this, getName() + "-shard-" + index);
+            }
+            if (queueType == QUEUE_TIMING_WHEEL) {
+                managedJobs = new TimingWheelTimerQueue(clock.currentTimeMillis());
+            } else {
+                managedJobs = new TreeTimerQueue();
+            }
+            if (clock instanceof JseVirtualClock) {
+                waiter = ((JseVirtualClock) clock).register(new Runnable() {
+                    @Override
+                    public void run() {
+                        wake();
+                    }
+                });
+            } else {
+                waiter = null;
+            }
+        }
 
-    /**
-     *  Adds a Runnable with an associated schedule.
-     *
-     *  @param job The Runnable to be run.  Must not be null.
-     *  @param schedule The schedule, must not be null.
-     */
-    public synchronized JseTimer createTimer(Runnable job, JseSchedule schedule) {
-        JseTimer timer = new JobWrapper(job, schedule).getTimer();
-        this.notify();
-        return timer;
-    }
+        /**
+         *  Hands a new or rescheduled JobWrapper to the scheduler.
+         */
+        private void submit(JobWrapper jw) {
+            busy();
+            if (lockFree) {
+                pendingJobs.offer(jw);
+                LockSupport.unpark(thread);
+            } else {
+                synchronized(this) {
+                    jw.update();
+                    notify();
+                }
+            }
+        }
 
-    /**
-     *  Retuns the number of jobs currently waiting to be run.
-     */
-    public int getWaitingCount() {
-        return runner.getWaitingCount();
-    }
+        /**
+         *  Counts a newly cancelled JobWrapper and, each time another
+         *  <code>COMPACT_MIN</code> have piled up, wakes the scheduler so it
+         *  can compact.
+         */
+        private void tombstone() {
+            if (tombstones.incrementAndGet() % COMPACT_MIN == 0) {
+                wake();
+            }
+        }
 
-    /**
-     *  Retuns the number of jobs is currently running.
-     */
-    public int getRunningCount() {
-        return runner.getRunningCount();
-    }
+        /**
+         *  Wakes the scheduler if it is waiting.
+         */
+        private void wake() {
+            busy();
+            if (lockFree) {
+                LockSupport.unpark(thread);
+            } else {
+                synchronized(this) {
+                    notify();
+                }
+            }
+        }
 
-    /**
-     *  Retuns the number jobs currently queued (# waiting + # running.)
-     */
-    public int getCount() {
-        return runner.getCount();
-    }
+        /**
+         *  Keeps a virtual clock from moving until the scheduler has looked
+         *  at what it has just been given.
+         */
+        private void busy() {
+            if (null != waiter) {
+                ((JseVirtualClock) clock).busy(waiter);
+            }
+        }
 
-    public void setMaxConcurrent(int max) {
-        runner.setMaxConcurrent(max);
-    }
+        /**
+         *  Called with nothing to do before <code>millis</code>.  Returns
+         *  true if the clock has moved there and the scheduler should carry
+         *  on, false if it should wait.
+         */
+        private boolean skipTo(long millis) {
+            if (null != waiter) {
+                return ((JseVirtualClock) clock).skipTo(waiter, millis, wakeups);
+            }
+            return millis != Long.MAX_VALUE && clock.skipTo(millis);
+        }
 
-    public int getMaxConcurrent() {
-        return runner.getMaxConcurrent();
-    }
+        /**
+         *  Lets a virtual clock move without this shard.
+         */
+        private void unregister() {
+            if (null != waiter) {
+                ((JseVirtualClock) clock).unregister(waiter);
+            }
+        }
 
-    @Override
-    public synchronized void run() {
-        while(true) {
-            while(managedJobs.size() == 0) {
-                try {
-                    wait();
-                } catch (InterruptedException e) {
+        /**
+         *  Hands new JobWrappers to the scheduler in one hand-off.
+         */
+        private void submitAll(List<JobWrapper> jobs) {
+            busy();
+            if (lockFree) {
+                pendingBatches.offer(jobs);
+                LockSupport.unpark(thread);
+            } else {
+                synchronized(this) {
+                    addAll(jobs);
+                    notify();
+                }
+            }
+        }
+
+        /**
+         *  Adds new JobWrappers to <code>managedJobs</code>, skipping any that
+         *  are already done or cancelled.  Only called by the scheduler, or
+         *  while holding this shard's monitor.
+         */
+        private void addAll(List<JobWrapper> jobs) {
+            ArrayList<JobWrapper> toAdd = new ArrayList<JobWrapper>(jobs.size());
+            for (int i = 0; i < jobs.size(); i++) {
+                JobWrapper jw = jobs.get(i);
+                if (!jw.cancelled && jw.remainingIterations != 0 && !jw.queued) {
+                    jw.queued = true;
+                    toAdd.add(jw);
+                }
+            }
+            managedJobs.addAll(toAdd);
+        }
+
+        @Override
+        public void run() {
+            while (!shutdown) {
+                if (lockFree) {
+                    step();
+                } else {
+                    synchronized(this) {
+                        step();
+                    }
+                }
+                dispatch();
+                wakeOthers();
+            }
+            unregister();
+        }
+
+        /**
+         *  Hands the batch to the runner.  Done without holding this shard's
+         *  monitor, since a full runner queue may block the scheduler or
+         *  have it run jobs itself.
+         */
+        private void dispatch() {
+            if (batch.isEmpty()) {
+                return;
+            }
+            group.queue(batch);
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).batched = 0;
+            }
+            batch.clear();
+        }
+
+        /**
+         *  Runs the wakeups collected by <code>skipTo</code>.  Done without
+         *  holding this shard's monitor, as each takes another shard's.
+         */
+        private void wakeOthers() {
+            for (int i = 0; i < wakeups.size(); i++) {
+                wakeups.get(i).run();
+            }
+            wakeups.clear();
+        }
+
+        /**
+         *  One pass of the scheduler loop: collect all due jobs into the
+         *  batch or, if none are due, wait until one may be due.
+         */
+        private void step() {
+            List<JobWrapper> jobs;
+            while (null != (jobs = pendingBatches.poll())) {
+                addAll(jobs);
+            }
+            JobWrapper jw;
+            while (null != (jw = pendingJobs.poll())) {
+                jw.update();
+            }
+            long millis = clock.currentTimeMillis();
+            long nanos = System.nanoTime();
+            long threshold = clockJumpThreshold;
+            if (!skipped && threshold > 0 && null == waiter) {
+                long drift = millis - (lastMillis + (nanos - lastNanos) / 1000000);
+                if (drift > threshold || drift < -threshold) {
+                    clockJumped(millis);
+                }
+            }
+            lastMillis = millis;
+            lastNanos = nanos;
+            skipped = false;
+
+            if (paused) {
+                skipTo(Long.MAX_VALUE);
+                if (wakeups.isEmpty()) {
+                    await(Long.MAX_VALUE);
+                }
+                return;
+            }
+            if (skipMissed) {
+                skipMissed = false;
+                skipMissed(millis);
+            }
+
+            while (null != (jw = (JobWrapper) managedJobs.poll(millis))) {
+                jw.dequeued();
+                if (!jw.cancelled && !jw.paused) {
+                    jw.queue(millis);
+                } // else dropped, or back in when resumed
+            }
+            int dead = tombstones.get();
+            if (dead >= COMPACT_MIN && dead >= managedJobs.size() / 2) {
+                rebuild(millis, false);
+            }
+            timerCount = managedJobs.size();
+            if (batch.isEmpty()) {
+                long nextTime = managedJobs.nextTime();
+                // with other shards to wake, wait on the next pass instead
+                if (skipTo(nextTime)) {
+                    skipped = true;
+                } else if (wakeups.isEmpty()) {
+                    long waitMillis = nextTime - millis;
+                    if (threshold > 0 && nextTime != Long.MAX_VALUE) {
+                        // an empty shard has nothing a jump could affect
+                        waitMillis = Math.min(waitMillis, threshold);
+                    }
+                    await(waitMillis);
+                }
+            }
+        }
+
+        /**
+         *  Moves every due JobWrapper to its first time at or after
+         *  <code>millis</code>, dropping the runs it missed.
+         */
+        private void skipMissed(long millis) {
+            ArrayList<JobWrapper> due = new ArrayList<JobWrapper>();
+            JobWrapper jw;
+            while (null != (jw = (JobWrapper) managedJobs.poll(millis))) {
+                jw.dequeued();
+                if (!jw.cancelled) {
+                    jw.restartAt(millis);
+                    due.add(jw);
+                }
+            }
+            for (int i = 0; i < due.size(); i++) {
+                due.get(i).update();
+            }
+        }
+
+        /**
+         *  Applies the clock jump policy.
+         */
+        private void clockJumped(long millis) {
+            clockJumpCount.incrementAndGet();
+            if (clockJumpPolicy == CLOCK_JUMP_RESCHEDULE) {
+                rebuild(millis, true);
+            }
+        }
+
+        /**
+         *  Takes everything out of <code>managedJobs</code> and puts back
+         *  the JobWrappers that are not cancelled, optionally rescheduling
+         *  them from <code>millis</code> first.  Counts as a compaction.
+         *  O(n) on a timing wheel, but O(n log n) on a tree, where each
+         *  JobWrapper is added back one at a time.
+         */
+        private void rebuild(long millis, boolean reschedule) {
+            ArrayList<TimerEntry> entries = new ArrayList<TimerEntry>(managedJobs.size());
+            managedJobs.removeAll(entries, millis);
+            ArrayList<TimerEntry> live = new ArrayList<TimerEntry>(entries.size());
+            int dead = 0;
+            for (int i = 0; i < entries.size(); i++) {
+                JobWrapper jw = (JobWrapper) entries.get(i);
+                // live ones stay marked queued, so a cancel meanwhile is counted
+                if (jw.cancelled) {
+                    jw.dequeued();
+                    dead++;
+                    continue;
+                }
+                if (reschedule) {
+                    jw.restartAt(millis);
+                }
+                if (jw.remainingIterations == 0) {
+                    jw.dequeued();
+                } else {
+                    live.add(jw);
                 }
             }
-            JobWrapper jw = managedJobs.first();
-            long nextTime = jw.nextDate.getTime();
-            long millis = System.currentTimeMillis();
-            if(millis >= nextTime) {
-                jw.queue();
+            managedJobs.addAll(live);
+            compactionCount.incrementAndGet();
+            compactedCount.addAndGet(dead);
+        }
+
+        /**
+         *  Waits until woken or until <code>millis</code> have passed.  Waits
+         *  indefinitely if <code>millis</code> is so large there is nothing to
+         *  wait for.
+         */
+        private void await(long millis) {
+            boolean forever = millis > Long.MAX_VALUE / 2;
+            if (lockFree) {
+                if (forever) {
+                    LockSupport.park(this);
+                } else {
+                    LockSupport.parkNanos(this, Math.max(1, millis) * 1000000L);
+                }
+                if (Thread.interrupted()) {
+                    // same as being told to shut down
+                    shutdown();
+                }
             } else {
                 try {
-                    wait(nextTime - millis);
+                    if (forever) {
+                        wait();
+                    } else {
+                        wait(Math.max(1, millis));
+                    }
                 } catch (InterruptedException e) {
+                    // same as being told to shut down
+                    shutdown();
                 }
             }
         }
@@ -138,35 +1253,70 @@ public class JseTimerService extends Thread {
      *  class's <code>managedJobs</code>;  also supports management for
      *  Runnables.
      */
-    private final class JobWrapper implements Runnable, Comparable<JobWrapper> {
+    private final class JobWrapper extends TimerEntry implements JseCountedJob, JsePriorityJob {
 
         private JseTimer timer;
 
-        /** to help compareTo when nextDates are equal */
-        private long id = idCounter++;
+        /** the shard whose managedJobs holds this */
+        private final Shard shard = shards[(System.identityHashCode(this) & 0x7fffffff) % shards.length];
 
         /** one of daJob or job must not be null */
         private JseDateAwareJob daJob;
         private Runnable job;
+        /** daJob if it takes its backlog in one call, else null */
+        private JseBatchDateAwareJob batchJob;
 
-        /** immutable schedule */
-        private JseSchedule schedule;
-        /** next call to queue() should use this date */
-        private Date nextDate;
-        /** Used by run(Date) method of JseDateAwareJob */
-        private List<Date> dateQueue = new LinkedList<Date>();
+        /** replaced only by the scheduler; read by job threads */
+        private volatile JseExtendedSchedule schedule;
+        /** fire times of a schedule passed to reschedule() but not yet applied */
+        private final AtomicReference<FireTimeBuffer> rescheduled = new AtomicReference<FireTimeBuffer>();
+        /** next call to queue() should use this time */
+        private long nextTime;
+        /** fire times after nextTime */
+        private FireTimeBuffer fireTimes;
+        /** getTime() rounds nextTime up to a multiple of this */
+        private long slackGrain = 1;
+        /**
+         *  The time nextTime() returned before the last one, and the newest
+         *  time added to dateQueue; when equal, a new time follows the
+         *  backlog.  Only accessed by the scheduler.
+         */
+        private long prevTime = Long.MIN_VALUE;
+        private long lastTime = Long.MIN_VALUE;
+        private long lastQueued = Long.MAX_VALUE;
+        /** times of the runs waiting to start, oldest first */
+        private RunBacklog dateQueue;
         /** Number of iterations remaining; -1 == infinity */
-        private int remainingIterations;
+        private volatile int remainingIterations;
+        /** set by cancel(), never cleared */
+        private volatile boolean cancelled;
+        /** set by pause(), cleared by resume() */
+        private volatile boolean paused;
+        /** set by resume(true); cleared when applied by update() */
+        private volatile boolean skipMissed;
+        /** true while in managedJobs; only changed by the scheduler */
+        private volatile boolean queued;
+        /** UNCOUNTED, COUNTED or REMOVED; see dequeued() */
+        volatile int tombstone = UNCOUNTED;
+        /** number of times in the shard's batch; only accessed by the scheduler */
+        private int batched;
+        /** number of times waiting in or running from the runner */
+        private final JseJobCounter counter = new JseJobCounter();
 
         /** constructor for JseDateAwareJob */
         private JobWrapper(JseDateAwareJob daJob, JseSchedule schedule) {
+            super(idCounter.getAndIncrement());
             this.daJob = daJob;
+            if (daJob instanceof JseBatchDateAwareJob) {
+                this.batchJob = (JseBatchDateAwareJob) daJob;
+            }
             setSchedule(schedule);
             timer = new JseTimerImpl(this);
         }
 
         /** constructor for Runnable */
         private JobWrapper(Runnable job, JseSchedule schedule) {
+            super(idCounter.getAndIncrement());
             this.job = job;
             setSchedule(schedule);
             timer = new JseTimerImpl(this);
@@ -174,12 +1324,111 @@ public class JseTimerService extends Thread {
 
         /** only called by constructors */
         private void setSchedule(JseSchedule schedule) {
-            this.schedule = schedule;
-            // setup iterations & nextDate var.
+            JseExtendedSchedule extended = JseScheduleAdapter.adapt(schedule);
+            this.dateQueue = new RunBacklog(extended);
+            applySchedule(prepareSchedule(extended));
+        }
+
+        /**
+         *  Returns a buffer of the schedule's fire times from now on, holding
+         *  just the first.  Called by the thread creating or rescheduling the
+         *  timer so the first search is not done by the scheduler; the
+         *  prefetch thread computes the rest.
+         */
+        private FireTimeBuffer prepareSchedule(JseExtendedSchedule schedule) {
+            FireTimeBuffer times = new FireTimeBuffer(schedule, PREFETCH);
+            times.reset(clock.currentTimeMillis());
+            times.fillFirst();
+            return times;
+        }
+
+        /**
+         *  Switches to the schedule of <code>times</code>.  Must not be
+         *  called while this is in <code>managedJobs</code>.
+         */
+        private void applySchedule(FireTimeBuffer times) {
+            schedule = times.getSchedule();
+            fireTimes = times;
+            slackGrain = schedule.getSlack() > 0 ? Long.highestOneBit(schedule.getSlack()) : 1;
+            counter.setMaxRunning(schedule.getMaxConcurrent());
+            synchronized(dateQueue) {
+                dateQueue.setSchedule(schedule);
+            }
+            lastTime = Long.MIN_VALUE;
+            lastQueued = Long.MAX_VALUE;
+            // setup iterations & nextTime var.
             remainingIterations = schedule.getNumberOfIterations() >= 0 ?
-                schedule.getNumberOfIterations() + 1: -1;
-            nextDate = new Date(System.currentTimeMillis() - 1);
-            nextDate();
+                schedule.getNumberOfIterations() : -1;
+            if (remainingIterations != 0) {
+                nextTime = fireTimes.next();
+                if (JseExtendedSchedule.NEVER == nextTime) {
+                    remainingIterations = 0;
+                } else if (fireTimes.needsRefill()) {
+                    prefetch(fireTimes);
+                }
+            }
+        }
+
+        /**
+         *  Hands a new schedule to the scheduler.  May be called from
+         *  outside JseTimerService.
+         */
+        private void reschedule(JseSchedule schedule) {
+            rescheduled.set(prepareSchedule(JseScheduleAdapter.adapt(schedule)));
+            shard.submit(this);
+        }
+
+        /**
+         *  Applies a pending reschedule, then adds this to or removes this
+         *  from <code>managedJobs</code> depending on whether it is still
+         *  live.  Only called by the
+         *  scheduler, or while holding the shard's monitor.
+         */
+        private void update() {
+            FireTimeBuffer times = rescheduled.getAndSet(null);
+            if (null != times) {
+                if (queued) {
+                    shard.managedJobs.remove(this);
+                    dequeued();
+                }
+                applySchedule(times);
+            }
+            if (cancelled || paused || remainingIterations == 0) {
+                if (queued) {
+                    shard.managedJobs.remove(this);
+                    dequeued();
+                }
+                if (paused && !cancelled && remainingIterations != 0) {
+                    shard.pausedJobs.add(this);
+                } else {
+                    shard.pausedJobs.remove(this);
+                }
+                return;
+            }
+            shard.pausedJobs.remove(this);
+            if (!queued) {
+                if (skipMissed) {
+                    skipMissed = false;
+                    long now = clock.currentTimeMillis();
+                    if (nextTime < now) {
+                        restartAt(now);
+                    }
+                }
+                if (remainingIterations != 0) {
+                    shard.managedJobs.add(this);
+                    queued = true;
+                }
+            }
+        }
+
+        /** nextTime, delayed by up to the schedule's slack */
+        @Override
+        long getTime() {
+            if (slackGrain == 1 || nextTime > JseExtendedSchedule.NEVER - slackGrain) {
+                return nextTime;
+            }
+            long rem = nextTime % slackGrain;
+            return rem <= 0 ? nextTime - rem : nextTime - rem + slackGrain;
         }
 
         /** get the timer for this JobWrapper */
@@ -187,48 +1436,148 @@ public class JseTimerService extends Thread {
             return timer;
         }
 
-        /** should only be called internally to this class */
-        private Date nextDate() {
-            Date date = nextDate;
-            // must remove, then add since updating nextDate
-            managedJobs.remove(this);
-            nextDate = schedule.getNextTimeout(new Date(date.getTime() + 1));
-            if (null == nextDate) {
-                // this is the last one
+        /**
+         *  Moves nextTime to the first time in the schedule at or after
+         *  <code>millis</code> without using up an iteration.  Must not be
+         *  called while this is in <code>managedJobs</code>.
+         */
+        private void restartAt(long millis) {
+            fireTimes.reset(millis);
+            nextTime = fireTimes.next();
+            lastTime = Long.MIN_VALUE;
+            if (JseExtendedSchedule.NEVER == nextTime) {
                 remainingIterations = 0;
-            } else if (remainingIterations > 0) {
-                remainingIterations--;
+            } else if (fireTimes.needsRefill()) {
+                prefetch(fireTimes);
             }
-            // if done...
-            if (remainingIterations == 0) {
-                cancel();
+        }
+
+        /**
+         *  Should only be called internally to this class.  Must not be
+         *  called while this is in <code>managedJobs</code>.
+         */
+        private long nextTime() {
+            long time = nextTime;
+            prevTime = lastTime;
+            lastTime = time;
+            nextTime = fireTimes.next();
+            if (JseExtendedSchedule.NEVER == nextTime) {
+                // this is the last one
+                remainingIterations = 0;
             } else {
-                managedJobs.add(this);
+                if (remainingIterations > 0) {
+                    remainingIterations--;
+                }
+                if (fireTimes.needsRefill()) {
+                    prefetch(fireTimes);
+                }
             }
-            return date;
+            return time;
         }
 
-        /** called when curtime == nextDate */
-        private void queue() {
+        /** called when now >= nextTime */
+        private void queue(long now) {
             // ASSERT: remainingIterations < 0 || remainingIterations > 0
 
-            // the date for this run
-            Date date = nextDate();
-            // make sure room left in queue
-            if (schedule.getMaxQueue() == -1 || getCount() < schedule.getMaxQueue()) {
-                // good, queue has room
-                if (daJob != null) {
-                    dateQueue.add(date);
+            // the time for this run
+            long time = nextTime();
+            int policy = schedule.getMisfirePolicy();
+            // a run delayed within its slack is on time
+            long threshold = schedule.getMisfireThreshold() + schedule.getSlack();
+            if (threshold < 0) {
+                threshold = Long.MAX_VALUE;
+            }
+            if (policy != JseExtendedSchedule.MISFIRE_FIRE_ALL && now - time > threshold) {
+                // late; step over the other runs that are due instead of
+                // polling each of them
+                if (policy == JseExtendedSchedule.MISFIRE_SKIP_IF_LATE) {
+                    while (now - time > threshold && remainingIterations != 0 && nextTime <= now) {
+                        time = nextTime();
+                    }
+                } else {
+                    while (remainingIterations != 0 && nextTime <= now) {
+                        time = nextTime();
+                    }
+                    if (policy == JseExtendedSchedule.MISFIRE_FIRE_ONCE_NOW) {
+                        time = now;
+                    }
+                }
+            }
+            // if not done, back in line for the next run
+            update();
+            if (policy == JseExtendedSchedule.MISFIRE_SKIP_IF_LATE && now - time > threshold) {
+                return;
+            }
+            synchronized(dateQueue) {
+                if ((policy == JseExtendedSchedule.MISFIRE_FIRE_ONCE_NOW
+                        || policy == JseExtendedSchedule.MISFIRE_FIRE_LATEST_ONLY)
+                        && !dateQueue.isEmpty()) {
+                    // a run is still waiting to start; it takes this time
+                    // instead of a second run being queued
+                    dateQueue.setLast(time);
+                    lastQueued = time;
+                    return;
                 }
-                runner.queue(this);
-            } // else throw away
+                boolean follows = time == lastTime && prevTime == lastQueued;
+                if (null != batchJob && !dateQueue.isEmpty()) {
+                    // the waiting run will take this time too
+                    dateQueue.add(time, follows);
+                    lastQueued = time;
+                    return;
+                }
+                // make sure room left in queue
+                if (schedule.getMaxQueue() != -1 && getCount() + batched >= schedule.getMaxQueue()) {
+                    // throw away
+                    return;
+                }
+                dateQueue.add(time, follows);
+                lastQueued = time;
+            }
+            shard.batch.add(this);
+            batched++;
+        }
+
+        /** May be called from outside JseTimerService. */
+        private void pause() {
+            paused = true;
+            shard.submit(this);
+        }
+
+        /** May be called from outside JseTimerService. */
+        private void resume(boolean skipMissed) {
+            if (skipMissed) {
+                this.skipMissed = true;
+            }
+            paused = false;
+            shard.submit(this);
         }
 
         /** May be called from outside JseTimerService. */
         private void cancel() {
-            synchronized(JseTimerService.this) {
-                remainingIterations = 0;
-                managedJobs.remove(this);
+            if (!cancelled) {
+                cancelled = true;
+                if (queued && TOMBSTONE.compareAndSet(this, UNCOUNTED, COUNTED)) {
+                    shard.tombstone();
+                }
+                if (paused) {
+                    // let the shard let go of it
+                    shard.submit(this);
+                }
+            }
+        }
+
+        /**
+         *  Called by the scheduler after taking this out of
+         *  <code>managedJobs</code>.  If cancelled, uncounts it unless
+         *  cancel() has yet to count it, in which case cancel() no longer
+         *  will.  cancel() sets cancelled before reading queued and this
+         *  clears queued before reading cancelled, so at least one of them
+         *  sees the other.
+         */
+        private void dequeued() {
+            queued = false;
+            if (cancelled && !TOMBSTONE.compareAndSet(this, UNCOUNTED, REMOVED)) {
+                shard.tombstones.decrementAndGet();
             }
         }
 
@@ -237,7 +1586,7 @@ public class JseTimerService extends Thread {
          *  May be called from outside JseTimerService.
          */
         private int getWaitingCount() {
-            return runner.getWaitingCount(this);
+            return counter.getWaitingCount();
         }
 
         /**
@@ -245,7 +1594,7 @@ public class JseTimerService extends Thread {
          *  May be called from outside JseTimerService.
          */
         private int getRunningCount() {
-            return runner.getRunningCount(this);
+            return counter.getRunningCount();
         }
 
         /**
@@ -253,53 +1602,81 @@ public class JseTimerService extends Thread {
          *  + # running).  May be called from outside JseTimerService.
          */
         private int getCount() {
-            return runner.getCount(this);
+            return counter.getCount();
+        }
+
+        @Override
+        public JseJobCounter getJobCounter() {
+            return counter;
         }
 
         /**
-         *  From Runnable interface. May be called from outside JseTimerService.
+         *  Drops the time of the skipped run; for a batch job, every time the
+         *  skipped run would have taken.
          */
         @Override
-        public void run() {
-            if (daJob != null) {
-                Date date;
-                synchronized(JseTimerService.this) {
-                    date = dateQueue.remove(0);
+        public void runSkipped() {
+            if (null != batchJob) {
+                synchronized(dateQueue) {
+                    dateQueue.clear();
                 }
-                daJob.run(date);
             } else {
-                job.run();
+                dateQueue.take();
             }
         }
 
+        @Override
+        public int getPriority() {
+            return schedule.getPriority();
+        }
+
         /**
-         *  Compares to another JobWrapper in terms of nextDate.  Since two
-         *  jobs may share a nextDate, care is taken to ensure no otherwise
-         *  unequal jobs are equal.  In other words, this Comparator is
-         *  consistent with equals at the expense of showing as equal two jobs
-         *  with the same nextDate.
+         *  Returns the deadline of the oldest run waiting to start.  Called
+         *  by the runner as this is queued.
          */
         @Override
-        public int compareTo(JobWrapper that) {
-            int result = this.nextDate.compareTo(that.nextDate);
-            if (result == 0) {
-                // ensure consistent with equals
-                if (this.equals(that)) {
-                    result = 0;
-                } else if (this.id < that.id) {
-                    result = -1;
-                } else if (this.id > that.id) {
-                    result = 1;
-                } else {
-                    throw new Error("id space exhausted - shouldn't happen.");
-                }
+        public long getDeadline() {
+            long time = dateQueue.peekTime();
+            if (Long.MAX_VALUE == time) {
+                return Long.MAX_VALUE;
+            }
+            long deadline = time + schedule.getDeadline();
+            return deadline < time ? Long.MAX_VALUE : deadline;
+        }
+
+        /**
+         *  From Runnable interface. May be called from outside JseTimerService.
+         */
+        @Override
+        public void run() {
+            if (null != batchJob) {
+                runBatch();
+                return;
+            }
+            // looks up the next time of the backlog without blocking the scheduler
+            long time = dateQueue.take();
+            if (daJob != null) {
+                daJob.run(new Date(time));
+            } else {
+                job.run();
+            }
+        }
+
+        /** Runs batchJob with every time in the backlog. */
+        private void runBatch() {
+            long[] times = dateQueue.takeAll();
+            ArrayList<Date> dates = new ArrayList<Date>(times.length);
+            for (int i = 0; i < times.length; i++) {
+                dates.add(new Date(times[i]));
+            }
+            if (!dates.isEmpty()) {
+                batchJob.run(dates);
             }
-            return result;
         }
 
     }
 
-    private class JseTimerImpl implements JseTimer {
+    private class JseTimerImpl implements JseExtendedTimer {
         WeakReference<JobWrapper> ref;
 
         private JseTimerImpl(JobWrapper scheduledJob) {
@@ -307,7 +1684,7 @@ public class JseTimerService extends Thread {
         }
         private JobWrapper getJobWrapper() throws JseTimerExpiredException {
             JobWrapper jw = ref.get();
-            if (null == jw || jw.remainingIterations == 0) {
+            if (null == jw || jw.cancelled || jw.remainingIterations == 0) {
                 throw new JseTimerExpiredException();
             } else {
                 return jw;
@@ -330,6 +1707,18 @@ public class JseTimerService extends Thread {
         public void cancel() throws JseTimerExpiredException {
             getJobWrapper().cancel();
         }
+        @Override
+        public void reschedule(JseSchedule schedule) throws JseTimerExpiredException {
+            getJobWrapper().reschedule(schedule);
+        }
+        @Override
+        public void pause() throws JseTimerExpiredException {
+            getJobWrapper().pause();
+        }
+        @Override
+        public void resume(boolean skipMissed) throws JseTimerExpiredException {
+            getJobWrapper().resume(skipMissed);
+        }
     }
 
 }
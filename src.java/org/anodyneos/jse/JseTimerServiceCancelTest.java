@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2002 John Vasileff
+ *
+ * Permission  is  hereby  granted,  free of  charge,  to  any  person
+ * obtaining  a copy  of  this software  and associated  documentation
+ * files   (the  "Software"),   to  deal   in  the   Software  without
+ * restriction, including without limitation  the rights to use, copy,
+ * modify, merge, publish, distribute,  sublicense, and/or sell copies
+ * of the  Software, and  to permit  persons to  whom the  Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The  above copyright  notice and  this permission  notice shall  be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE  SOFTWARE  IS  PROVIDED  "AS   IS",  WITHOUT  WARRANTY  OF  ANY
+ * KIND,  EXPRESS  OR  IMPLIED,  INCLUDING  BUT  NOT  LIMITED  TO  THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES  OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT,  TORT OR OTHERWISE, ARISING FROM, OUT  OF OR IN
+ * CONNECTION WITH  THE SOFTWARE OR THE  USE OR OTHER DEALINGS  IN THE
+ * SOFTWARE.
+ */
+
+package org.anodyneos.jse;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.anodyneos.jse.TestSupport.Every;
+
+import static org.anodyneos.jse.TestSupport.HOUR;
+import static org.anodyneos.jse.TestSupport.check;
+
+/**
+ *  Times cancelling 99,000 of 100,000 timers on the caller's side, for each
+ *  queue type with and without lock-free creation and cancelling, and
+ *  checks that every cancelled timer in a scheduler's queue is either still
+ *  counted as a tombstone or has been compacted away.  Cancelling the
+ *  remaining 1,000 once paused must not add a tombstone.
+ */
+public class JseTimerServiceCancelTest {
+
+    private static final int TIMERS = 100000;
+    private static final int PAUSED = 1000;
+    /** how long to wait for the schedulers to catch up */
+    private static final long TIMEOUT = 30000;
+
+    public static void main(String[] args) throws InterruptedException, JseTimerExpiredException {
+        Runnable job = new Runnable() {
+            @Override
+            public void run() {
+            }
+        };
+        for (int queueType = JseTimerService.QUEUE_TREE;
+                queueType <= JseTimerService.QUEUE_TIMING_WHEEL; queueType++) {
+            for (int lockFree = 0; lockFree < 2; lockFree++) {
+                String name = "queue " + queueType + " lockFree " + lockFree;
+                JseTimerService service = new JseTimerService(queueType, lockFree == 1, 2);
+                service.setDaemon(true);
+                service.start();
+                List<JseTimerSpec> specs = new ArrayList<JseTimerSpec>(TIMERS);
+                for (int i = 0; i < TIMERS; i++) {
+                    specs.add(new JseTimerSpec(job, new Every(HOUR)));
+                }
+                List<JseTimer> timers = service.createTimers(specs);
+                // let the schedulers take them in, so each cancel leaves a tombstone
+                long deadline = System.currentTimeMillis() + TIMEOUT;
+                while (service.getTimerCount() != TIMERS) {
+                    check(System.currentTimeMillis() < deadline, name + ": "
+                            + service.getTimerCount() + " of " + TIMERS + " timers taken in");
+                    Thread.sleep(10);
+                }
+
+                int cancels = TIMERS - PAUSED;
+                long start = System.nanoTime();
+                for (int i = 0; i < cancels; i++) {
+                    timers.get(i).cancel();
+                }
+                long millis = (System.nanoTime() - start) / 1000000;
+                long removed = 0;
+                deadline = System.currentTimeMillis() + TIMEOUT;
+                while ((removed = service.getTombstoneCount() + service.getCompactedCount()) != cancels) {
+                    check(System.currentTimeMillis() < deadline, name + ": "
+                            + removed + " of " + cancels + " cancels accounted for");
+                    Thread.sleep(10);
+                }
+
+                for (int i = cancels; i < TIMERS; i++) {
+                    ((JseExtendedTimer) timers.get(i)).pause();
+                }
+                // paused timers leave the queue, tombstones stay until compacted
+                deadline = System.currentTimeMillis() + TIMEOUT;
+                while (service.getTimerCount() != service.getTombstoneCount()) {
+                    check(System.currentTimeMillis() < deadline, name + ": "
+                            + (service.getTimerCount() - service.getTombstoneCount())
+                            + " paused timers still queued");
+                    Thread.sleep(10);
+                }
+                int tombstones = service.getTombstoneCount();
+                for (int i = cancels; i < TIMERS; i++) {
+                    timers.get(i).cancel();
+                }
+                check(service.getTombstoneCount() == tombstones,
+                        name + ": cancelling paused timers added tombstones");
+
+                System.out.println("Queue " + queueType + " lockFree " + lockFree + ": "
+                        + cancels + " cancels took " + millis + "ms, "
+                        + service.getCompactionCount() + " compactions");
+                service.shutdown();
+            }
+        }
+        System.out.println("OK");
+    }
+}
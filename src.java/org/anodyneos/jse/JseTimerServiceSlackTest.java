@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2002 John Vasileff
+ *
+ * Permission  is  hereby  granted,  free of  charge,  to  any  person
+ * obtaining  a copy  of  this software  and associated  documentation
+ * files   (the  "Software"),   to  deal   in  the   Software  without
+ * restriction, including without limitation  the rights to use, copy,
+ * modify, merge, publish, distribute,  sublicense, and/or sell copies
+ * of the  Software, and  to permit  persons to  whom the  Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The  above copyright  notice and  this permission  notice shall  be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE  SOFTWARE  IS  PROVIDED  "AS   IS",  WITHOUT  WARRANTY  OF  ANY
+ * KIND,  EXPRESS  OR  IMPLIED,  INCLUDING  BUT  NOT  LIMITED  TO  THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES  OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT,  TORT OR OTHERWISE, ARISING FROM, OUT  OF OR IN
+ * CONNECTION WITH  THE SOFTWARE OR THE  USE OR OTHER DEALINGS  IN THE
+ * SOFTWARE.
+ */
+
+package org.anodyneos.jse;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.anodyneos.jse.TestSupport.Periodic;
+
+import static org.anodyneos.jse.TestSupport.check;
+
+/**
+ *  Measures how much schedule slack saves the scheduler.  500 timers with
+ *  periods from 97 to 109 milliseconds run for two seconds with no slack
+ *  and with 50 milliseconds of slack, and the clock reads are counted;
+ *  the scheduler reads the clock about once per pass.  Jobs are queued
+ *  but not started, so only the scheduler is measured.  Fails unless slack
+ *  at least halves the clock reads.
+ */
+public class JseTimerServiceSlackTest {
+
+    private static final int TIMERS = 500;
+    private static final long RUN_MILLIS = 2000;
+    /** fewest clock reads without slack per read with it; about 3.5 is usual */
+    private static final int MIN_RATIO = 2;
+
+    public static void main(String[] args) throws InterruptedException {
+        for (int queueType = JseTimerService.QUEUE_TREE;
+                queueType <= JseTimerService.QUEUE_TIMING_WHEEL; queueType++) {
+            long exact = run(queueType, 0);
+            long slack = run(queueType, 50);
+            System.out.println("Queue " + queueType + ": clock reads without slack: " + exact
+                    + ", with 50ms slack: " + slack + ", ratio: " + (float) exact / slack);
+            check(exact >= MIN_RATIO * slack, "queue " + queueType + ": slack saved too little");
+        }
+        System.out.println("OK");
+    }
+
+    private static long run(int queueType, long slack) throws InterruptedException {
+        final AtomicLong reads = new AtomicLong();
+        JseClock clock = new JseClock() {
+            @Override
+            public long currentTimeMillis() {
+                reads.incrementAndGet();
+                return JseClock.SYSTEM.currentTimeMillis();
+            }
+
+            @Override
+            public boolean skipTo(long millis) {
+                return false;
+            }
+        };
+        JseTimerService service = new JseTimerService(queueType, false, 1, clock);
+        service.setDaemon(true);
+        service.setMaxConcurrent(0);
+        service.setClockJumpThreshold(0);
+        Runnable job = new Runnable() {
+            @Override
+            public void run() {
+            }
+        };
+        for (int i = 0; i < TIMERS; i++) {
+            service.createTimer(job, new Periodic(97 + i % 13, slack));
+        }
+        service.start();
+        long before = reads.get();
+        Thread.sleep(RUN_MILLIS);
+        long count = reads.get() - before;
+        // the runs never started are dropped
+        service.shutdown(0, TimeUnit.MILLISECONDS);
+        return count;
+    }
+}
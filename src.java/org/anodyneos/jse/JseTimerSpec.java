@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2002 John Vasileff
+ *
+ * Permission  is  hereby  granted,  free of  charge,  to  any  person
+ * obtaining  a copy  of  this software  and associated  documentation
+ * files   (the  "Software"),   to  deal   in  the   Software  without
+ * restriction, including without limitation  the rights to use, copy,
+ * modify, merge, publish, distribute,  sublicense, and/or sell copies
+ * of the  Software, and  to permit  persons to  whom the  Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The  above copyright  notice and  this permission  notice shall  be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE  SOFTWARE  IS  PROVIDED  "AS   IS",  WITHOUT  WARRANTY  OF  ANY
+ * KIND,  EXPRESS  OR  IMPLIED,  INCLUDING  BUT  NOT  LIMITED  TO  THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES  OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT,  TORT OR OTHERWISE, ARISING FROM, OUT  OF OR IN
+ * CONNECTION WITH  THE SOFTWARE OR THE  USE OR OTHER DEALINGS  IN THE
+ * SOFTWARE.
+ */
+
+package org.anodyneos.jse;
+
+/**
+ *  A job and its schedule, as passed to
+ *  <code>JseTimerService.createTimers</code>.  Exactly one of
+ *  <code>getJob</code> and <code>getDateAwareJob</code> returns non-null.
+ */
+public class JseTimerSpec {
+    private Runnable job;
+    private JseDateAwareJob daJob;
+    private JseSchedule schedule;
+
+    /**
+     *  @param daJob The JseDateAwareJob to be run.  Must not be null.
+     *  @param schedule The schedule, must not be null.
+     */
+    public JseTimerSpec(JseDateAwareJob daJob, JseSchedule schedule) {
+        this.daJob = daJob;
+        this.schedule = schedule;
+    }
+
+    /**
+     *  @param job The Runnable to be run.  Must not be null.
+     *  @param schedule The schedule, must not be null.
+     */
+    public JseTimerSpec(Runnable job, JseSchedule schedule) {
+        this.job = job;
+        this.schedule = schedule;
+    }
+
+    public Runnable getJob() {
+        return job;
+    }
+    public JseDateAwareJob getDateAwareJob() {
+        return daJob;
+    }
+    public JseSchedule getSchedule() {
+        return schedule;
+    }
+
+}
@@ -0,0 +1,268 @@
+/*
+ * Copyright (c) 2002 John Vasileff
+ *
+ * Permission  is  hereby  granted,  free of  charge,  to  any  person
+ * obtaining  a copy  of  this software  and associated  documentation
+ * files   (the  "Software"),   to  deal   in  the   Software  without
+ * restriction, including without limitation  the rights to use, copy,
+ * modify, merge, publish, distribute,  sublicense, and/or sell copies
+ * of the  Software, and  to permit  persons to  whom the  Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The  above copyright  notice and  this permission  notice shall  be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE  SOFTWARE  IS  PROVIDED  "AS   IS",  WITHOUT  WARRANTY  OF  ANY
+ * KIND,  EXPRESS  OR  IMPLIED,  INCLUDING  BUT  NOT  LIMITED  TO  THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES  OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT,  TORT OR OTHERWISE, ARISING FROM, OUT  OF OR IN
+ * CONNECTION WITH  THE SOFTWARE OR THE  USE OR OTHER DEALINGS  IN THE
+ * SOFTWARE.
+ */
+
+package org.anodyneos.jse;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ *  <code>JseClock</code> for simulations.  Time starts at a given instant
+ *  and only moves when the schedulers using the clock skip to their next
+ *  deadline, so a <code>JseTimerService</code> runs through its schedule as
+ *  fast as the CPU allows.  Jobs themselves still run in real time.
+ *
+ *  <p>Every shard of every <code>JseTimerService</code> built with the
+ *  clock registers with it.  Time only moves once all of them are waiting,
+ *  and then to the earliest of their deadlines, so any number of shards and
+ *  services can share one clock without one skipping past another's
+ *  deadline.  Shards whose deadline has come are woken.</p>
+ *
+ *  <p>Time never moves past the end given to the constructor.  Schedulers
+ *  with nothing due before the end wait in real time, as with the system
+ *  clock.</p>
+ */
+public class JseVirtualClock implements JseClock {
+
+    /** idleUntil of a waiter that is not waiting */
+    private static final long BUSY = Long.MIN_VALUE;
+
+    private volatile long now;
+    private long endMillis;
+
+    /** registered schedulers; time only moves once all are waiting */
+    private List<Waiter> waiters = new ArrayList<Waiter>();
+
+    /**
+     *  @param startMillis The initial time.
+     */
+    public JseVirtualClock(long startMillis) {
+        this(startMillis, Long.MAX_VALUE);
+    }
+
+    /**
+     *  @param startMillis The initial time.
+     *  @param endMillis Time does not move past this.
+     */
+    public JseVirtualClock(long startMillis, long endMillis) {
+        this.now = startMillis;
+        this.endMillis = endMillis;
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return now;
+    }
+
+    /**
+     *  Moves time to <code>millis</code> for a caller that has not
+     *  registered, waking any registered scheduler whose deadline has come.
+     */
+    @Override
+    public boolean skipTo(long millis) {
+        List<Runnable> wakeups;
+        boolean reached;
+        synchronized(this) {
+            setNow(Math.min(millis, endMillis));
+            reached = millis <= endMillis;
+            wakeups = due(null);
+        }
+        run(wakeups);
+        return reached;
+    }
+
+    /**
+     *  Moves time forward to <code>millis</code>, or to the end if that is
+     *  earlier.  Never moves time backwards.
+     */
+    public void advanceTo(long millis) {
+        List<Runnable> wakeups;
+        synchronized(this) {
+            setNow(Math.min(millis, endMillis));
+            wakeups = due(null);
+        }
+        run(wakeups);
+    }
+
+    public long getEndMillis() {
+        return endMillis;
+    }
+
+    /**
+     *  Waits until time has reached the end.
+     *
+     *  @param timeoutMillis Maximum real time to wait; 0 to wait forever.
+     *  @return true if the end was reached.
+     */
+    public synchronized boolean awaitEnd(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (now < endMillis) {
+            if (timeoutMillis == 0) {
+                wait();
+            } else {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                wait(remaining);
+            }
+        }
+        return true;
+    }
+
+    /**
+     *  Registers a scheduler.  It counts as busy, holding time where it is,
+     *  until it calls <code>skipTo(Waiter, long, List)</code>.
+     *
+     *  @param wakeup Called, without holding this clock's monitor, when time
+     *  reaches the scheduler's deadline.
+     */
+    synchronized Waiter register(Runnable wakeup) {
+        Waiter waiter = new Waiter(wakeup);
+        waiters.add(waiter);
+        return waiter;
+    }
+
+    /**
+     *  Unregisters a scheduler, which may let the others move time.  Does
+     *  nothing if already unregistered.
+     */
+    void unregister(Waiter waiter) {
+        List<Runnable> wakeups;
+        synchronized(this) {
+            if (!waiters.remove(waiter)) {
+                return;
+            }
+            wakeups = advance(null);
+        }
+        run(wakeups);
+    }
+
+    /**
+     *  Marks a registered scheduler busy, for instance because it has been
+     *  given a new timer, so time does not move until it waits again.
+     */
+    synchronized void busy(Waiter waiter) {
+        waiter.idleUntil = BUSY;
+    }
+
+    /**
+     *  Called by a registered scheduler with nothing to do before
+     *  <code>millis</code>, or <code>Long.MAX_VALUE</code> if it has nothing
+     *  to do at all.  If every registered scheduler is now waiting, time
+     *  moves to the earliest deadline.
+     *
+     *  @param wakeups Receives the wakeups of the other schedulers whose
+     *  deadline has come.  The caller must run them without holding any
+     *  monitor a wakeup may take, such as its own, and must not wait
+     *  until it has.
+     *  @return true if time has reached <code>millis</code> and the
+     *  scheduler should carry on; false if it should wait until woken.
+     */
+    synchronized boolean skipTo(Waiter waiter, long millis, List<Runnable> wakeups) {
+        waiter.idleUntil = millis;
+        List<Runnable> due = advance(waiter);
+        if (null != due) {
+            wakeups.addAll(due);
+        }
+        boolean reached = millis <= now;
+        if (reached) {
+            waiter.idleUntil = BUSY;
+        }
+        return reached;
+    }
+
+    /**
+     *  If all registered schedulers are waiting, moves time to the earliest
+     *  deadline.  Returns the wakeups of the schedulers, other than
+     *  <code>caller</code>, whose deadline has come.
+     */
+    private List<Runnable> advance(Waiter caller) {
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < waiters.size(); i++) {
+            long idleUntil = waiters.get(i).idleUntil;
+            if (idleUntil == BUSY) {
+                return null;
+            }
+            min = Math.min(min, idleUntil);
+        }
+        if (min != Long.MAX_VALUE) {
+            setNow(Math.min(min, endMillis));
+        }
+        return due(caller);
+    }
+
+    /**
+     *  Marks busy, and returns the wakeups of, the waiting schedulers other
+     *  than <code>caller</code> whose deadline has come.
+     */
+    private List<Runnable> due(Waiter caller) {
+        List<Runnable> wakeups = null;
+        for (int i = 0; i < waiters.size(); i++) {
+            Waiter waiter = waiters.get(i);
+            if (waiter != caller && waiter.idleUntil != BUSY && waiter.idleUntil <= now) {
+                waiter.idleUntil = BUSY;
+                if (null == wakeups) {
+                    wakeups = new ArrayList<Runnable>();
+                }
+                wakeups.add(waiter.wakeup);
+            }
+        }
+        return wakeups;
+    }
+
+    /** runs wakeups, which may take the schedulers' monitors */
+    private static void run(List<Runnable> wakeups) {
+        if (null != wakeups) {
+            for (int i = 0; i < wakeups.size(); i++) {
+                wakeups.get(i).run();
+            }
+        }
+    }
+
+    private void setNow(long millis) {
+        if (millis > now) {
+            now = millis;
+            if (now >= endMillis) {
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     *  A registered scheduler.
+     */
+    static final class Waiter {
+
+        private final Runnable wakeup;
+
+        /** the deadline the scheduler is waiting for, or BUSY */
+        private long idleUntil = BUSY;
+
+        private Waiter(Runnable wakeup) {
+            this.wakeup = wakeup;
+        }
+    }
+
+}
@@ -0,0 +1,308 @@
+/*
+ * Copyright (c) 2002 John Vasileff
+ *
+ * Permission  is  hereby  granted,  free of  charge,  to  any  person
+ * obtaining  a copy  of  this software  and associated  documentation
+ * files   (the  "Software"),   to  deal   in  the   Software  without
+ * restriction, including without limitation  the rights to use, copy,
+ * modify, merge, publish, distribute,  sublicense, and/or sell copies
+ * of the  Software, and  to permit  persons to  whom the  Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The  above copyright  notice and  this permission  notice shall  be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE  SOFTWARE  IS  PROVIDED  "AS   IS",  WITHOUT  WARRANTY  OF  ANY
+ * KIND,  EXPRESS  OR  IMPLIED,  INCLUDING  BUT  NOT  LIMITED  TO  THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES  OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT,  TORT OR OTHERWISE, ARISING FROM, OUT  OF OR IN
+ * CONNECTION WITH  THE SOFTWARE OR THE  USE OR OTHER DEALINGS  IN THE
+ * SOFTWARE.
+ */
+
+package org.anodyneos.jse;
+
+/**
+ *  FIFO queue of the fire times of runs waiting to start.  Consecutive fire
+ *  times of the schedule are kept as a single range of first time and
+ *  count, so a job that falls behind by thousands of runs still takes a
+ *  few longs.  The caller says whether a new time follows the newest one;
+ *  taking the next time out of a range asks the schedule for it.  Not
+ *  thread safe: callers synchronize on the backlog, except for
+ *  <code>take()</code>, <code>takeAll()</code> and
+ *  <code>peekTime()</code>, which do so themselves so as to ask the
+ *  schedule without holding the monitor.
+ */
+final class RunBacklog {
+
+    /** schedule of ranges added from now on */
+    private JseExtendedSchedule schedule;
+
+    /** ring buffer of ranges */
+    private JseExtendedSchedule[] schedules;
+    private long[] first;
+    private long[] last;
+    private int[] count;
+    private int head;
+    private int ranges;
+
+    /** total number of fire times */
+    private int size;
+
+    /**
+     *  True if the first time of the head range is not yet known, and is
+     *  the schedule's next time after <code>headAfter</code>.
+     */
+    private boolean headStale;
+    private long headAfter;
+    /** changed whenever the head may change, so a lookup made meanwhile is discarded */
+    private int version;
+
+    RunBacklog(JseExtendedSchedule schedule) {
+        this.schedule = schedule;
+        schedules = new JseExtendedSchedule[2];
+        first = new long[2];
+        last = new long[2];
+        count = new int[2];
+    }
+
+    /**
+     *  Sets the schedule for times added from now on.  Times already in the
+     *  backlog keep the schedule they were added with.  The next time added
+     *  must not be said to follow.
+     */
+    void setSchedule(JseExtendedSchedule schedule) {
+        this.schedule = schedule;
+    }
+
+    /**
+     *  Adds <code>time</code> after all other times.
+     *
+     *  @param follows true if <code>time</code> is known to be the
+     *  schedule's next time after the newest time in this backlog.  Saves
+     *  asking the schedule, which must not be done on the scheduler thread.
+     */
+    void add(long time, boolean follows) {
+        if (ranges > 0 && follows) {
+            int tail = (head + ranges - 1) % count.length;
+            if (time > last[tail]) {
+                last[tail] = time;
+                count[tail]++;
+                size++;
+                return;
+            }
+        }
+        addRange(time);
+    }
+
+    /**
+     *  Replaces the newest time.  The backlog must not be empty.
+     */
+    void setLast(long time) {
+        if (size == 0) {
+            throw new java.util.NoSuchElementException();
+        }
+        int tail = (head + ranges - 1) % count.length;
+        version++;
+        if (count[tail] == 1) {
+            first[tail] = time;
+            last[tail] = time;
+            if (tail == head) {
+                headStale = false;
+            }
+        } else {
+            // the newest time of the range is dropped; its last is no longer
+            // known, so the replacement always starts a new range
+            count[tail]--;
+            size--;
+            addRange(time);
+        }
+    }
+
+    private void addRange(long time) {
+        if (ranges == count.length) {
+            grow();
+        }
+        int tail = (head + ranges) % count.length;
+        schedules[tail] = schedule;
+        first[tail] = time;
+        last[tail] = time;
+        count[tail] = 1;
+        ranges++;
+        size++;
+    }
+
+    /**
+     *  Removes and returns the oldest time.  The backlog must not be empty.
+     *  The next time of the range is left to be looked up when needed.
+     */
+    long remove() {
+        if (size == 0) {
+            throw new java.util.NoSuchElementException();
+        }
+        long time = peek();
+        version++;
+        if (--count[head] == 0) {
+            schedules[head] = null;
+            head = (head + 1) % count.length;
+            ranges--;
+        } else {
+            headStale = true;
+            headAfter = time;
+        }
+        size--;
+        return time;
+    }
+
+    /**
+     *  Returns the oldest time.  The backlog must not be empty.  Asks the
+     *  schedule, while the caller holds the monitor, if the time is not
+     *  yet known; <code>peekTime()</code> avoids that.
+     */
+    long peek() {
+        if (size == 0) {
+            throw new java.util.NoSuchElementException();
+        }
+        if (headStale) {
+            first[head] = schedules[head].getNextTimeoutMillis(headAfter + 1);
+            headStale = false;
+        }
+        return first[head];
+    }
+
+    /**
+     *  Removes all times.
+     */
+    void clear() {
+        for (int i = 0; i < ranges; i++) {
+            schedules[(head + i) % count.length] = null;
+        }
+        head = 0;
+        ranges = 0;
+        size = 0;
+        headStale = false;
+        version++;
+    }
+
+    /**
+     *  Same as <code>remove()</code>, but looks up the oldest time first
+     *  without holding the monitor.  Must be called without holding it.
+     */
+    long take() {
+        lookUpHead();
+        synchronized(this) {
+            // another thread may have taken a time meanwhile
+            return remove();
+        }
+    }
+
+    /**
+     *  Returns the oldest time, or <code>Long.MAX_VALUE</code> if empty,
+     *  looking it up without holding the monitor.  Must be called without
+     *  holding it.
+     */
+    long peekTime() {
+        lookUpHead();
+        synchronized(this) {
+            return size == 0 ? Long.MAX_VALUE : peek();
+        }
+    }
+
+    /**
+     *  Removes all times and returns them, oldest first.  The times not yet
+     *  known are looked up without holding the monitor.  Must be called
+     *  without holding it.
+     */
+    long[] takeAll() {
+        JseExtendedSchedule[] rangeSchedules;
+        long[] rangeFirst;
+        int[] rangeCount;
+        long after;
+        boolean stale;
+        int total;
+        synchronized(this) {
+            int n = ranges;
+            rangeSchedules = new JseExtendedSchedule[n];
+            rangeFirst = new long[n];
+            rangeCount = new int[n];
+            for (int i = 0; i < n; i++) {
+                int j = (head + i) % count.length;
+                rangeSchedules[i] = schedules[j];
+                rangeFirst[i] = first[j];
+                rangeCount[i] = count[j];
+            }
+            stale = headStale;
+            after = headAfter;
+            total = size;
+            clear();
+        }
+        long[] times = new long[total];
+        int k = 0;
+        for (int i = 0; i < rangeSchedules.length; i++) {
+            long time = i == 0 && stale
+                    ? rangeSchedules[0].getNextTimeoutMillis(after + 1) : rangeFirst[i];
+            times[k++] = time;
+            for (int j = 1; j < rangeCount[i]; j++) {
+                time = rangeSchedules[i].getNextTimeoutMillis(time + 1);
+                times[k++] = time;
+            }
+        }
+        return times;
+    }
+
+    /**
+     *  Looks up the first time of the head range if it is not known,
+     *  asking the schedule without holding the monitor.
+     */
+    private void lookUpHead() {
+        JseExtendedSchedule headSchedule;
+        long after;
+        int v;
+        synchronized(this) {
+            if (!headStale) {
+                return;
+            }
+            headSchedule = schedules[head];
+            after = headAfter;
+            v = version;
+        }
+        long time = headSchedule.getNextTimeoutMillis(after + 1);
+        synchronized(this) {
+            if (v == version) {
+                first[head] = time;
+                headStale = false;
+            }
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    private void grow() {
+        int n = count.length;
+        JseExtendedSchedule[] newSchedules = new JseExtendedSchedule[n * 2];
+        long[] newFirst = new long[n * 2];
+        long[] newLast = new long[n * 2];
+        int[] newCount = new int[n * 2];
+        for (int i = 0; i < ranges; i++) {
+            int j = (head + i) % n;
+            newSchedules[i] = schedules[j];
+            newFirst[i] = first[j];
+            newLast[i] = last[j];
+            newCount[i] = count[j];
+        }
+        schedules = newSchedules;
+        first = newFirst;
+        last = newLast;
+        count = newCount;
+        head = 0;
+    }
+
+}
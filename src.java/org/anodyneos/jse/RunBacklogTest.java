@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2002 John Vasileff
+ *
+ * Permission  is  hereby  granted,  free of  charge,  to  any  person
+ * obtaining  a copy  of  this software  and associated  documentation
+ * files   (the  "Software"),   to  deal   in  the   Software  without
+ * restriction, including without limitation  the rights to use, copy,
+ * modify, merge, publish, distribute,  sublicense, and/or sell copies
+ * of the  Software, and  to permit  persons to  whom the  Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The  above copyright  notice and  this permission  notice shall  be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE  SOFTWARE  IS  PROVIDED  "AS   IS",  WITHOUT  WARRANTY  OF  ANY
+ * KIND,  EXPRESS  OR  IMPLIED,  INCLUDING  BUT  NOT  LIMITED  TO  THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES  OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT,  TORT OR OTHERWISE, ARISING FROM, OUT  OF OR IN
+ * CONNECTION WITH  THE SOFTWARE OR THE  USE OR OTHER DEALINGS  IN THE
+ * SOFTWARE.
+ */
+
+package org.anodyneos.jse;
+
+import java.util.ArrayDeque;
+import java.util.Date;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.anodyneos.jse.TestSupport.Every;
+
+import static org.anodyneos.jse.TestSupport.check;
+
+/**
+ *  Runs random adds, removes, <code>setLast</code> calls and schedule
+ *  changes against a <code>RunBacklog</code> and an
+ *  <code>ArrayDeque</code> and checks that the same times come out, then
+ *  checks that a long backlog of consecutive times stays one range and
+ *  that <code>take()</code> looks up times without holding the backlog's
+ *  monitor.
+ */
+public class RunBacklogTest {
+
+    private static final int OPERATIONS = 200000;
+
+    public static void main(String[] args) throws InterruptedException {
+        Random random = new Random(args.length > 0 ? Long.parseLong(args[0]) : 1);
+        JseExtendedSchedule[] schedules = {
+            JseScheduleAdapter.adapt(new Every(1000)),
+            JseScheduleAdapter.adapt(new Every(1500)) };
+        JseExtendedSchedule schedule = schedules[0];
+        RunBacklog backlog = new RunBacklog(schedule);
+        ArrayDeque<Long> expected = new ArrayDeque<Long>();
+        boolean mayFollow = false;
+        long time = 0;
+
+        for (int i = 0; i < OPERATIONS; i++) {
+            int op = random.nextInt(20);
+            if (op < 10) {
+                // usually the schedule's next time, sometimes a skipped or off-grid one
+                time = schedule.getNextTimeoutMillis(time + 1);
+                if (random.nextInt(8) == 0) {
+                    time = schedule.getNextTimeoutMillis(time + 1);
+                }
+                if (random.nextInt(20) == 0) {
+                    time += 7;
+                }
+                boolean follows = mayFollow && !expected.isEmpty()
+                        && time == schedule.getNextTimeoutMillis(expected.peekLast() + 1);
+                backlog.add(time, follows);
+                expected.addLast(time);
+                mayFollow = true;
+            } else if (op < 18) {
+                if (!expected.isEmpty()) {
+                    long actual = random.nextBoolean() ? backlog.remove() : backlog.take();
+                    long wanted = expected.removeFirst();
+                    check(actual == wanted, "removed " + actual + " instead of " + wanted + " at " + i);
+                }
+            } else if (op < 19) {
+                if (!expected.isEmpty()) {
+                    time += 1000;
+                    backlog.setLast(time);
+                    expected.removeLast();
+                    expected.addLast(time);
+                }
+            } else if (random.nextInt(50) == 0) {
+                long[] all = backlog.takeAll();
+                check(all.length == expected.size(), "takeAll returned " + all.length + " times at " + i);
+                for (int j = 0; j < all.length; j++) {
+                    long wanted = expected.removeFirst();
+                    check(all[j] == wanted, "takeAll returned " + all[j] + " instead of " + wanted);
+                }
+            } else {
+                schedule = schedules[random.nextInt(schedules.length)];
+                backlog.setSchedule(schedule);
+                mayFollow = false;
+            }
+            check(backlog.size() == expected.size(), "size differs at " + i);
+            // not every time, so times stay unknown until taken
+            if (random.nextInt(4) == 0) {
+                long wanted = expected.isEmpty() ? Long.MAX_VALUE : expected.peekFirst();
+                check(backlog.peekTime() == wanted, "peek differs at " + i);
+            }
+        }
+
+        RunBacklog hour = new RunBacklog(schedules[0]);
+        for (int i = 1; i <= 3600; i++) {
+            hour.add(i * 1000L, i > 1);
+        }
+        for (int i = 1; i <= 3600; i++) {
+            check(hour.remove() == i * 1000L, "hour backlog out of order");
+        }
+        check(hour.isEmpty(), "hour backlog not empty");
+
+        checkLookUpUnlocked();
+        System.out.println("OK");
+    }
+
+    /**
+     *  Holds up the schedule while <code>take()</code> looks up a time, and
+     *  checks that the scheduler could still add a time meanwhile.
+     */
+    private static void checkLookUpUnlocked() throws InterruptedException {
+        final CountDownLatch lookingUp = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        JseSchedule slow = new Every(1000) {
+            @Override
+            public Date getNextTimeout(Date start) {
+                if (start.getTime() == 1001) {
+                    lookingUp.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return super.getNextTimeout(start);
+            }
+        };
+        final RunBacklog backlog = new RunBacklog(JseScheduleAdapter.adapt(slow));
+        backlog.add(1000, false);
+        backlog.add(2000, true);
+        backlog.add(3000, true);
+        check(backlog.remove() == 1000, "first time");
+
+        final long[] taken = new long[1];
+        Thread job = new Thread() {
+            @Override
+            public void run() {
+                taken[0] = backlog.take();
+            }
+        };
+        job.start();
+        check(lookingUp.await(5, TimeUnit.SECONDS), "take() did not look up the time");
+        Thread scheduler = new Thread() {
+            @Override
+            public void run() {
+                synchronized(backlog) {
+                    backlog.add(4000, true);
+                }
+            }
+        };
+        scheduler.start();
+        scheduler.join(5000);
+        boolean blocked = scheduler.isAlive();
+        release.countDown();
+        job.join();
+        scheduler.join();
+        check(!blocked, "monitor held while looking up a time");
+        check(taken[0] == 2000, "took " + taken[0]);
+        check(backlog.take() == 3000 && backlog.take() == 4000 && backlog.isEmpty(), "times after the look-up");
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2002 John Vasileff
+ *
+ * Permission  is  hereby  granted,  free of  charge,  to  any  person
+ * obtaining  a copy  of  this software  and associated  documentation
+ * files   (the  "Software"),   to  deal   in  the   Software  without
+ * restriction, including without limitation  the rights to use, copy,
+ * modify, merge, publish, distribute,  sublicense, and/or sell copies
+ * of the  Software, and  to permit  persons to  whom the  Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The  above copyright  notice and  this permission  notice shall  be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE  SOFTWARE  IS  PROVIDED  "AS   IS",  WITHOUT  WARRANTY  OF  ANY
+ * KIND,  EXPRESS  OR  IMPLIED,  INCLUDING  BUT  NOT  LIMITED  TO  THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES  OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT,  TORT OR OTHERWISE, ARISING FROM, OUT  OF OR IN
+ * CONNECTION WITH  THE SOFTWARE OR THE  USE OR OTHER DEALINGS  IN THE
+ * SOFTWARE.
+ */
+
+package org.anodyneos.jse;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ *  Queue of the jobs waiting in a <code>JseRunner</code>, in one of the
+ *  runner's <code>ORDER_</code> orders.  FIFO order keeps the jobs
+ *  themselves; the other orders keep each job with its priority and
+ *  deadline as read when it was queued, and fall back to FIFO among equal
+ *  keys.  Not thread safe.
+ */
+final class RunQueue {
+
+    private int order = JseRunner.ORDER_FIFO;
+    /** used in FIFO order */
+    private ArrayDeque<Runnable> fifo = new ArrayDeque<Runnable>();
+    /** used in the other orders; null in FIFO order */
+    private PriorityQueue<Entry> ordered;
+    /** ties between equal keys go to the lower sequence number */
+    private long sequence;
+
+    /**
+     *  Changes the order, reordering the jobs already waiting.
+     */
+    void setOrder(int order) {
+        if (order == this.order) {
+            return;
+        }
+        List<Runnable> jobs = drain();
+        this.order = order;
+        if (order == JseRunner.ORDER_FIFO) {
+            ordered = null;
+        } else {
+            ordered = new PriorityQueue<Entry>(11, order == JseRunner.ORDER_DEADLINE
+                    ? DEADLINE_FIRST : PRIORITY_FIRST);
+        }
+        for (Runnable job : jobs) {
+            add(job);
+        }
+    }
+
+    int getOrder() {
+        return order;
+    }
+
+    void add(Runnable job) {
+        if (null == ordered) {
+            fifo.addLast(job);
+        } else if (job instanceof JsePriorityJob) {
+            JsePriorityJob pj = (JsePriorityJob) job;
+            ordered.add(new Entry(job, pj.getPriority(), pj.getDeadline(), sequence++));
+        } else {
+            ordered.add(new Entry(job, 0, Long.MAX_VALUE, sequence++));
+        }
+    }
+
+    /**
+     *  Removes and returns the next job to run, or null if empty.
+     */
+    Runnable poll() {
+        if (null == ordered) {
+            return fifo.pollFirst();
+        }
+        Entry entry = ordered.poll();
+        return null == entry ? null : entry.job;
+    }
+
+    /**
+     *  Removes and returns the job queued longest ago, or null if empty.
+     */
+    Runnable removeOldest() {
+        if (null == ordered) {
+            return fifo.pollFirst();
+        }
+        Entry oldest = null;
+        for (Entry entry : ordered) {
+            if (null == oldest || entry.sequence < oldest.sequence) {
+                oldest = entry;
+            }
+        }
+        if (null == oldest) {
+            return null;
+        }
+        ordered.remove(oldest);
+        return oldest.job;
+    }
+
+    int size() {
+        return null == ordered ? fifo.size() : ordered.size();
+    }
+
+    boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     *  Removes and returns all jobs, in the order they would have run.
+     */
+    List<Runnable> drain() {
+        List<Runnable> jobs = new ArrayList<Runnable>(size());
+        Runnable job;
+        while (null != (job = poll())) {
+            jobs.add(job);
+        }
+        return jobs;
+    }
+
+    private static final class Entry {
+        private final Runnable job;
+        private final int priority;
+        private final long deadline;
+        private final long sequence;
+
+        Entry(Runnable job, int priority, long deadline, long sequence) {
+            this.job = job;
+            this.priority = priority;
+            this.deadline = deadline;
+            this.sequence = sequence;
+        }
+    }
+
+    private static final Comparator<Entry> PRIORITY_FIRST = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry a, Entry b) {
+            if (a.priority != b.priority) {
+                return a.priority > b.priority ? -1 : 1;
+            }
+            if (a.deadline != b.deadline) {
+                return a.deadline < b.deadline ? -1 : 1;
+            }
+            return a.sequence < b.sequence ? -1 : (a.sequence == b.sequence ? 0 : 1);
+        }
+    };
+
+    private static final Comparator<Entry> DEADLINE_FIRST = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry a, Entry b) {
+            if (a.deadline != b.deadline) {
+                return a.deadline < b.deadline ? -1 : 1;
+            }
+            if (a.priority != b.priority) {
+                return a.priority > b.priority ? -1 : 1;
+            }
+            return a.sequence < b.sequence ? -1 : (a.sequence == b.sequence ? 0 : 1);
+        }
+    };
+
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2002 John Vasileff
+ *
+ * Permission  is  hereby  granted,  free of  charge,  to  any  person
+ * obtaining  a copy  of  this software  and associated  documentation
+ * files   (the  "Software"),   to  deal   in  the   Software  without
+ * restriction, including without limitation  the rights to use, copy,
+ * modify, merge, publish, distribute,  sublicense, and/or sell copies
+ * of the  Software, and  to permit  persons to  whom the  Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The  above copyright  notice and  this permission  notice shall  be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE  SOFTWARE  IS  PROVIDED  "AS   IS",  WITHOUT  WARRANTY  OF  ANY
+ * KIND,  EXPRESS  OR  IMPLIED,  INCLUDING  BUT  NOT  LIMITED  TO  THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES  OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT,  TORT OR OTHERWISE, ARISING FROM, OUT  OF OR IN
+ * CONNECTION WITH  THE SOFTWARE OR THE  USE OR OTHER DEALINGS  IN THE
+ * SOFTWARE.
+ */
+
+package org.anodyneos.jse;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.anodyneos.jse.TestSupport.check;
+
+/**
+ *  Checks the order in which <code>RunQueue</code> hands out jobs in each of
+ *  the runner's queue orders, including ties, plain jobs mixed with
+ *  <code>JsePriorityJob</code>s, <code>removeOldest()</code> and changing
+ *  the order of a full queue.
+ */
+public class RunQueueTest {
+
+    private static final int JOBS = 2000;
+
+    public static void main(String[] args) {
+        Random random = new Random(args.length > 0 ? Long.parseLong(args[0]) : 1);
+        int[] orders = { JseRunner.ORDER_FIFO, JseRunner.ORDER_PRIORITY, JseRunner.ORDER_DEADLINE };
+
+        for (int order : orders) {
+            RunQueue queue = new RunQueue();
+            queue.setOrder(order);
+            List<Job> jobs = jobs(random);
+            for (Job job : jobs) {
+                queue.add(job);
+            }
+            checkOrder(queue.drain(), order, "order " + order);
+            check(queue.isEmpty(), "not empty after drain");
+
+            // removeOldest takes jobs in the order they were queued
+            for (Job job : jobs) {
+                queue.add(job);
+            }
+            for (int i = 0; i < jobs.size(); i++) {
+                check(queue.removeOldest() == jobs.get(i), "removeOldest out of order in order " + order);
+            }
+            check(null == queue.removeOldest() && null == queue.poll(), "not empty after removeOldest");
+        }
+
+        // jobs already waiting are reordered
+        RunQueue queue = new RunQueue();
+        for (Job job : jobs(random)) {
+            queue.add(job);
+        }
+        queue.setOrder(JseRunner.ORDER_DEADLINE);
+        queue.setOrder(JseRunner.ORDER_PRIORITY);
+        checkOrder(queue.drain(), JseRunner.ORDER_PRIORITY, "reordered");
+
+        System.out.println("OK");
+    }
+
+    /** jobs with few distinct keys, so there are many ties; a third are plain */
+    private static List<Job> jobs(Random random) {
+        List<Job> jobs = new ArrayList<Job>(JOBS);
+        for (int i = 0; i < JOBS; i++) {
+            if (random.nextInt(3) == 0) {
+                jobs.add(new Job(i));
+            } else {
+                long deadline = random.nextInt(5) == 0 ? Long.MAX_VALUE : random.nextInt(10);
+                jobs.add(new PriorityJob(i, random.nextInt(5) - 2, deadline));
+            }
+        }
+        return jobs;
+    }
+
+    /**
+     *  Checks that each job should run no later than the next, and that
+     *  every job came out once.
+     */
+    private static void checkOrder(List<Runnable> drained, int order, String message) {
+        check(drained.size() == JOBS, message + ": " + drained.size() + " jobs");
+        boolean[] seen = new boolean[JOBS];
+        for (int i = 0; i < drained.size(); i++) {
+            Job job = (Job) drained.get(i);
+            check(!seen[job.sequence], message + ": job " + job.sequence + " twice");
+            seen[job.sequence] = true;
+            if (i > 0) {
+                check(!before(job, (Job) drained.get(i - 1), order),
+                        message + ": job " + job.sequence + " out of order");
+            }
+        }
+    }
+
+    /** true if <code>a</code> should run before <code>b</code> */
+    private static boolean before(Job a, Job b, int order) {
+        if (order == JseRunner.ORDER_PRIORITY) {
+            if (a.priority() != b.priority()) {
+                return a.priority() > b.priority();
+            }
+            if (a.deadline() != b.deadline()) {
+                return a.deadline() < b.deadline();
+            }
+        } else if (order == JseRunner.ORDER_DEADLINE) {
+            if (a.deadline() != b.deadline()) {
+                return a.deadline() < b.deadline();
+            }
+            if (a.priority() != b.priority()) {
+                return a.priority() > b.priority();
+            }
+        }
+        return a.sequence < b.sequence;
+    }
+
+    private static class Job implements Runnable {
+        final int sequence;
+
+        Job(int sequence) {
+            this.sequence = sequence;
+        }
+
+        int priority() {
+            return 0;
+        }
+
+        long deadline() {
+            return Long.MAX_VALUE;
+        }
+
+        @Override
+        public void run() {
+        }
+    }
+
+    private static class PriorityJob extends Job implements JsePriorityJob {
+        private final int priority;
+        private final long deadline;
+
+        PriorityJob(int sequence, int priority, long deadline) {
+            super(sequence);
+            this.priority = priority;
+            this.deadline = deadline;
+        }
+
+        @Override
+        int priority() {
+            return priority;
+        }
+
+        @Override
+        long deadline() {
+            return deadline;
+        }
+
+        @Override
+        public int getPriority() {
+            return priority;
+        }
+
+        @Override
+        public long getDeadline() {
+            return deadline;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2002 John Vasileff
+ *
+ * Permission  is  hereby  granted,  free of  charge,  to  any  person
+ * obtaining  a copy  of  this software  and associated  documentation
+ * files   (the  "Software"),   to  deal   in  the   Software  without
+ * restriction, including without limitation  the rights to use, copy,
+ * modify, merge, publish, distribute,  sublicense, and/or sell copies
+ * of the  Software, and  to permit  persons to  whom the  Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The  above copyright  notice and  this permission  notice shall  be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE  SOFTWARE  IS  PROVIDED  "AS   IS",  WITHOUT  WARRANTY  OF  ANY
+ * KIND,  EXPRESS  OR  IMPLIED,  INCLUDING  BUT  NOT  LIMITED  TO  THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES  OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT,  TORT OR OTHERWISE, ARISING FROM, OUT  OF OR IN
+ * CONNECTION WITH  THE SOFTWARE OR THE  USE OR OTHER DEALINGS  IN THE
+ * SOFTWARE.
+ */
+
+package org.anodyneos.jse;
+
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ *  Checks and schedules shared by the tests in this package.
+ */
+final class TestSupport {
+
+    static final long HOUR = 3600000L;
+
+    private TestSupport() {
+    }
+
+    /**
+     *  Throws <code>IllegalStateException</code> with <code>message</code>
+     *  unless <code>condition</code> holds.
+     */
+    static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException(message);
+        }
+    }
+
+    /**
+     *  Every <code>period</code> milliseconds since the epoch up to
+     *  <code>end</code>, counting calls.  A plain <code>JseSchedule</code>,
+     *  so it goes through <code>JseScheduleAdapter</code>.
+     */
+    static class Every implements JseSchedule {
+        private final long period;
+        final long end;
+        final AtomicInteger calls = new AtomicInteger();
+
+        Every(long period) {
+            this(period, Long.MAX_VALUE);
+        }
+
+        Every(long period, long end) {
+            this.period = period;
+            this.end = end;
+        }
+
+        @Override
+        public Date getNextTimeout(Date start) {
+            calls.incrementAndGet();
+            long millis = start.getTime();
+            long next = (millis + period - 1) / period * period;
+            return next > end ? null : new Date(next);
+        }
+
+        @Override
+        public int getNumberOfIterations() {
+            return -1;
+        }
+
+        @Override
+        public int getMaxQueue() {
+            return -1;
+        }
+    }
+
+    /**
+     *  Every <code>period</code> milliseconds since the epoch, forever,
+     *  with <code>slack</code> and at most one run queued.
+     */
+    static class Periodic implements JseExtendedSchedule {
+        private final long period;
+        private final long slack;
+
+        Periodic(long period, long slack) {
+            this.period = period;
+            this.slack = slack;
+        }
+
+        @Override
+        public Date getNextTimeout(Date start) {
+            return new Date(getNextTimeoutMillis(start.getTime()));
+        }
+
+        @Override
+        public long getNextTimeoutMillis(long startMillis) {
+            return (startMillis + period - 1) / period * period;
+        }
+
+        @Override
+        public long[] getNextTimeouts(long startMillis, int n) {
+            long[] timeouts = new long[n];
+            long next = startMillis;
+            for (int i = 0; i < n; i++) {
+                next = getNextTimeoutMillis(next);
+                timeouts[i] = next++;
+            }
+            return timeouts;
+        }
+
+        @Override
+        public int getNumberOfIterations() {
+            return -1;
+        }
+
+        @Override
+        public int getMaxQueue() {
+            return 1;
+        }
+
+        @Override
+        public int getMisfirePolicy() {
+            return MISFIRE_FIRE_ALL;
+        }
+
+        @Override
+        public long getMisfireThreshold() {
+            return DEFAULT_MISFIRE_THRESHOLD;
+        }
+
+        @Override
+        public long getSlack() {
+            return slack;
+        }
+
+        @Override
+        public int getPriority() {
+            return 0;
+        }
+
+        @Override
+        public long getDeadline() {
+            return 0;
+        }
+
+        @Override
+        public int getMaxConcurrent() {
+            return -1;
+        }
+    }
+}
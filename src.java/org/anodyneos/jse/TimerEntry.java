@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2002 John Vasileff
+ *
+ * Permission  is  hereby  granted,  free of  charge,  to  any  person
+ * obtaining  a copy  of  this software  and associated  documentation
+ * files   (the  "Software"),   to  deal   in  the   Software  without
+ * restriction, including without limitation  the rights to use, copy,
+ * modify, merge, publish, distribute,  sublicense, and/or sell copies
+ * of the  Software, and  to permit  persons to  whom the  Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The  above copyright  notice and  this permission  notice shall  be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE  SOFTWARE  IS  PROVIDED  "AS   IS",  WITHOUT  WARRANTY  OF  ANY
+ * KIND,  EXPRESS  OR  IMPLIED,  INCLUDING  BUT  NOT  LIMITED  TO  THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES  OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT,  TORT OR OTHERWISE, ARISING FROM, OUT  OF OR IN
+ * CONNECTION WITH  THE SOFTWARE OR THE  USE OR OTHER DEALINGS  IN THE
+ * SOFTWARE.
+ */
+
+package org.anodyneos.jse;
+
+/**
+ *  An element of a <code>TimerQueue</code>.  The link fields are maintained
+ *  by the <code>TimerQueue</code> the entry has been added to and must not be
+ *  touched otherwise.
+ */
+abstract class TimerEntry implements Comparable<TimerEntry> {
+
+    /** to help compareTo when times are equal */
+    final long id;
+
+    /** links used by TimingWheelTimerQueue */
+    TimerEntry prev;
+    TimerEntry next;
+    TimingWheelTimerQueue.Bucket bucket;
+
+    TimerEntry(long id) {
+        this.id = id;
+    }
+
+    /**
+     *  Returns the time, in milliseconds since the epoch, at which this entry
+     *  is due.  Must not change while the entry is in a
+     *  <code>TimerQueue</code>.
+     */
+    abstract long getTime();
+
+    /**
+     *  Compares to another TimerEntry in terms of time.  Since two entries
+     *  may share a time, care is taken to ensure no otherwise unequal entries
+     *  are equal.  In other words, this Comparator is consistent with equals
+     *  at the expense of showing as equal two entries with the same time.
+     */
+    @Override
+    public int compareTo(TimerEntry that) {
+        long thisTime = this.getTime();
+        long thatTime = that.getTime();
+        int result = thisTime < thatTime ? -1 : (thisTime == thatTime ? 0 : 1);
+        if (result == 0) {
+            // ensure consistent with equals
+            if (this.equals(that)) {
+                result = 0;
+            } else if (this.id < that.id) {
+                result = -1;
+            } else if (this.id > that.id) {
+                result = 1;
+            } else {
+                throw new Error("id space exhausted - shouldn't happen.");
+            }
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2002 John Vasileff
+ *
+ * Permission  is  hereby  granted,  free of  charge,  to  any  person
+ * obtaining  a copy  of  this software  and associated  documentation
+ * files   (the  "Software"),   to  deal   in  the   Software  without
+ * restriction, including without limitation  the rights to use, copy,
+ * modify, merge, publish, distribute,  sublicense, and/or sell copies
+ * of the  Software, and  to permit  persons to  whom the  Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The  above copyright  notice and  this permission  notice shall  be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE  SOFTWARE  IS  PROVIDED  "AS   IS",  WITHOUT  WARRANTY  OF  ANY
+ * KIND,  EXPRESS  OR  IMPLIED,  INCLUDING  BUT  NOT  LIMITED  TO  THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES  OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT,  TORT OR OTHERWISE, ARISING FROM, OUT  OF OR IN
+ * CONNECTION WITH  THE SOFTWARE OR THE  USE OR OTHER DEALINGS  IN THE
+ * SOFTWARE.
+ */
+
+package org.anodyneos.jse;
+
+import java.util.List;
+
+/**
+ *  Orders <code>TimerEntry</code>s by time for <code>JseTimerService</code>.
+ *  Implementations are not thread safe; callers must synchronize.
+ */
+interface TimerQueue {
+
+    /**
+     *  Adds an entry.  The entry must not already be in a queue.
+     */
+    void add(TimerEntry entry);
+
+    /**
+     *  Adds several entries at once.  None of them may already be in a
+     *  queue.
+     */
+    void addAll(List<? extends TimerEntry> entries);
+
+    /**
+     *  Removes an entry.  Does nothing if the entry is not in this queue.
+     */
+    void remove(TimerEntry entry);
+
+    /**
+     *  Removes all entries, adding them to <code>into</code>, and takes
+     *  <code>now</code> as the current time from here on even if it is
+     *  earlier than times previously passed to <code>poll</code>.
+     */
+    void removeAll(List<? super TimerEntry> into, long now);
+
+    /**
+     *  Returns the number of entries in this queue.
+     */
+    int size();
+
+    /**
+     *  Removes and returns an entry that is due at or before
+     *  <code>now</code>, or returns null if there is none.
+     *  <code>now</code> may be earlier than on a previous call if the clock
+     *  has stepped backward.
+     */
+    TimerEntry poll(long now);
+
+    /**
+     *  Returns the earliest time at which <code>poll</code> may return an
+     *  entry.  The result may be earlier than the time of any entry, but
+     *  never later.  Returns <code>Long.MAX_VALUE</code> if empty.
+     */
+    long nextTime();
+
+}
@@ -0,0 +1,297 @@
+/*
+ * Copyright (c) 2002 John Vasileff
+ *
+ * Permission  is  hereby  granted,  free of  charge,  to  any  person
+ * obtaining  a copy  of  this software  and associated  documentation
+ * files   (the  "Software"),   to  deal   in  the   Software  without
+ * restriction, including without limitation  the rights to use, copy,
+ * modify, merge, publish, distribute,  sublicense, and/or sell copies
+ * of the  Software, and  to permit  persons to  whom the  Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The  above copyright  notice and  this permission  notice shall  be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE  SOFTWARE  IS  PROVIDED  "AS   IS",  WITHOUT  WARRANTY  OF  ANY
+ * KIND,  EXPRESS  OR  IMPLIED,  INCLUDING  BUT  NOT  LIMITED  TO  THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES  OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT,  TORT OR OTHERWISE, ARISING FROM, OUT  OF OR IN
+ * CONNECTION WITH  THE SOFTWARE OR THE  USE OR OTHER DEALINGS  IN THE
+ * SOFTWARE.
+ */
+
+package org.anodyneos.jse;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ *  <code>TimerQueue</code> backed by a hierarchical timing wheel.  Add,
+ *  remove and poll are O(1) regardless of the number of entries.
+ *
+ *  <p>There are five wheels.  The seconds wheel has one slot per millisecond
+ *  of the current second, the minutes wheel one slot per second of the
+ *  current minute, the hours wheel one slot per minute of the current hour,
+ *  the days wheel one slot per hour of the current day and the years wheel
+ *  one slot per day of the current 366 day period.  Entries beyond that go
+ *  to an overflow list.  An entry is kept in the finest wheel whose period
+ *  also contains the cursor.  When the cursor enters a new slot of a coarser
+ *  wheel the entries of that slot are redistributed to the finer wheels.
+ *  Each entry is therefore moved at most once per wheel.</p>
+ *
+ *  <p>Times must not be negative.</p>
+ */
+final class TimingWheelTimerQueue implements TimerQueue {
+
+    /** milliseconds covered by one slot of each wheel, then by the overflow list */
+    private static final long[] SLOT_MILLIS = {
+        1L, 1000L, 60000L, 3600000L, 86400000L, 366L * 86400000L };
+
+    /** number of slots in each wheel */
+    private static final int[] SLOTS = { 1000, 60, 60, 24, 366 };
+
+    private static final int WHEELS = SLOTS.length;
+    private static final int OVERFLOW = WHEELS;
+    private static final int EXPIRED = WHEELS + 1;
+
+    private final Bucket[][] wheels = new Bucket[WHEELS][];
+
+    /** entries in each wheel, then in the overflow list */
+    private final int[] counts = new int[WHEELS + 1];
+
+    private final Bucket overflow = new Bucket(OVERFLOW);
+
+    /** entries that are due */
+    private final Bucket expired = new Bucket(EXPIRED);
+
+    /** time up to which the wheels have been advanced */
+    private long cursor;
+
+    private int size;
+
+    /**
+     *  @param now The current time; entries at or before this time are due
+     *  immediately.
+     */
+    TimingWheelTimerQueue(long now) {
+        for (int i = 0; i < WHEELS; i++) {
+            wheels[i] = new Bucket[SLOTS[i]];
+            for (int j = 0; j < SLOTS[i]; j++) {
+                wheels[i][j] = new Bucket(i);
+            }
+        }
+        cursor = now;
+    }
+
+    @Override
+    public void add(TimerEntry entry) {
+        link(bucketFor(entry.getTime()), entry);
+        size++;
+    }
+
+    @Override
+    public void addAll(List<? extends TimerEntry> entries) {
+        for (int i = 0; i < entries.size(); i++) {
+            add(entries.get(i));
+        }
+    }
+
+    @Override
+    public void remove(TimerEntry entry) {
+        if (null != entry.bucket) {
+            unlink(entry);
+            size--;
+        }
+    }
+
+    @Override
+    public void removeAll(List<? super TimerEntry> into, long now) {
+        for (int i = 0; i < WHEELS; i++) {
+            for (int j = 0; j < SLOTS[i]; j++) {
+                removeAll(wheels[i][j], into);
+            }
+        }
+        removeAll(overflow, into);
+        removeAll(expired, into);
+        size = 0;
+        cursor = now;
+    }
+
+    private void removeAll(Bucket bucket, List<? super TimerEntry> into) {
+        while (null != bucket.head) {
+            TimerEntry entry = bucket.head;
+            unlink(entry);
+            into.add(entry);
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public TimerEntry poll(long now) {
+        if (now > cursor) {
+            advance(now);
+        } else if (now < cursor) {
+            rewind(now);
+        }
+        TimerEntry entry = expired.head;
+        if (null != entry) {
+            unlink(entry);
+            size--;
+        }
+        return entry;
+    }
+
+    @Override
+    public long nextTime() {
+        if (null != expired.head) {
+            return cursor;
+        }
+        for (int i = 0; i < WHEELS; i++) {
+            if (counts[i] > 0) {
+                long slot = cursor / SLOT_MILLIS[i];
+                int current = (int) (slot % SLOTS[i]);
+                for (int j = current + 1; j < SLOTS[i]; j++) {
+                    if (null != wheels[i][j].head) {
+                        return (slot - current + j) * SLOT_MILLIS[i];
+                    }
+                }
+            }
+        }
+        if (counts[OVERFLOW] > 0) {
+            return (cursor / SLOT_MILLIS[OVERFLOW] + 1) * SLOT_MILLIS[OVERFLOW];
+        }
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     *  Moves the cursor forward to <code>target</code>, skipping ahead
+     *  whenever the finer wheels are empty.
+     */
+    private void advance(long target) {
+        while (cursor < target) {
+            int level = 0;
+            while (level <= OVERFLOW && counts[level] == 0) {
+                level++;
+            }
+            if (level > OVERFLOW) {
+                // nothing left but expired entries
+                cursor = target;
+                break;
+            }
+            // nothing can happen before the next slot of the finest
+            // non-empty wheel
+            long next = (cursor / SLOT_MILLIS[level] + 1) * SLOT_MILLIS[level];
+            if (next > target) {
+                cursor = target;
+                break;
+            }
+            cursor = next;
+            // coarsest first, so cascaded entries cascade further if needed
+            if (cursor % SLOT_MILLIS[OVERFLOW] == 0) {
+                cascade(overflow);
+            }
+            for (int i = WHEELS - 1; i >= 0; i--) {
+                if (cursor % SLOT_MILLIS[i] == 0) {
+                    cascade(wheels[i][(int) ((cursor / SLOT_MILLIS[i]) % SLOTS[i])]);
+                }
+            }
+        }
+    }
+
+    /**
+     *  Moves the cursor back to <code>target</code> after the clock has
+     *  stepped backward, so entries due after <code>target</code> are no
+     *  longer expired.  Linear in the number of entries, but only needed
+     *  when the clock goes backward.
+     */
+    private void rewind(long target) {
+        List<TimerEntry> entries = new ArrayList<TimerEntry>(size);
+        removeAll(entries, target);
+        addAll(entries);
+    }
+
+    /**
+     *  Redistributes the entries of a bucket relative to the cursor.
+     */
+    private void cascade(Bucket bucket) {
+        // detach first; overflow entries may land in the same bucket again
+        TimerEntry entry = bucket.head;
+        bucket.head = null;
+        bucket.tail = null;
+        while (null != entry) {
+            TimerEntry next = entry.next;
+            counts[bucket.level]--;
+            link(bucketFor(entry.getTime()), entry);
+            entry = next;
+        }
+    }
+
+    private Bucket bucketFor(long time) {
+        if (time <= cursor) {
+            return expired;
+        }
+        for (int i = 0; i < WHEELS; i++) {
+            long period = SLOT_MILLIS[i + 1];
+            if (time / period == cursor / period) {
+                return wheels[i][(int) ((time / SLOT_MILLIS[i]) % SLOTS[i])];
+            }
+        }
+        return overflow;
+    }
+
+    private void link(Bucket bucket, TimerEntry entry) {
+        // append to keep entries of equal time in insertion order
+        entry.bucket = bucket;
+        entry.next = null;
+        entry.prev = bucket.tail;
+        if (null == bucket.tail) {
+            bucket.head = entry;
+        } else {
+            bucket.tail.next = entry;
+        }
+        bucket.tail = entry;
+        if (bucket.level <= OVERFLOW) {
+            counts[bucket.level]++;
+        }
+    }
+
+    private void unlink(TimerEntry entry) {
+        Bucket bucket = entry.bucket;
+        if (null == entry.prev) {
+            bucket.head = entry.next;
+        } else {
+            entry.prev.next = entry.next;
+        }
+        if (null == entry.next) {
+            bucket.tail = entry.prev;
+        } else {
+            entry.next.prev = entry.prev;
+        }
+        if (bucket.level <= OVERFLOW) {
+            counts[bucket.level]--;
+        }
+        entry.bucket = null;
+        entry.prev = null;
+        entry.next = null;
+    }
+
+    /**
+     *  Doubly linked list of entries sharing a slot.
+     */
+    static final class Bucket {
+        private final int level;
+        private TimerEntry head;
+        private TimerEntry tail;
+
+        private Bucket(int level) {
+            this.level = level;
+        }
+    }
+
+}
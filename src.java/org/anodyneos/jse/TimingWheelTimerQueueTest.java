@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2002 John Vasileff
+ *
+ * Permission  is  hereby  granted,  free of  charge,  to  any  person
+ * obtaining  a copy  of  this software  and associated  documentation
+ * files   (the  "Software"),   to  deal   in  the   Software  without
+ * restriction, including without limitation  the rights to use, copy,
+ * modify, merge, publish, distribute,  sublicense, and/or sell copies
+ * of the  Software, and  to permit  persons to  whom the  Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The  above copyright  notice and  this permission  notice shall  be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE  SOFTWARE  IS  PROVIDED  "AS   IS",  WITHOUT  WARRANTY  OF  ANY
+ * KIND,  EXPRESS  OR  IMPLIED,  INCLUDING  BUT  NOT  LIMITED  TO  THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES  OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT,  TORT OR OTHERWISE, ARISING FROM, OUT  OF OR IN
+ * CONNECTION WITH  THE SOFTWARE OR THE  USE OR OTHER DEALINGS  IN THE
+ * SOFTWARE.
+ */
+
+package org.anodyneos.jse;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.anodyneos.jse.TestSupport.check;
+
+/**
+ *  Runs random adds, removes and polls against a
+ *  <code>TimingWheelTimerQueue</code> and a <code>TreeTimerQueue</code> and
+ *  checks that the same entries come due at the same times, including
+ *  after the clock steps backward.
+ */
+public class TimingWheelTimerQueueTest {
+
+    private static final int OPERATIONS = 200000;
+
+    public static void main(String[] args) {
+        Random random = new Random(args.length > 0 ? Long.parseLong(args[0]) : 1);
+        long now = 1000000000000L;
+        TimerQueue wheel = new TimingWheelTimerQueue(now);
+        TimerQueue tree = new TreeTimerQueue();
+        List<Entry> live = new ArrayList<Entry>();
+        // each entry is added to one queue only, so keep a twin for the other
+        List<Entry> twins = new ArrayList<Entry>();
+        long id = 0;
+        int polled = 0;
+
+        for (int i = 0; i < OPERATIONS; i++) {
+            int op = random.nextInt(10);
+            if (op < 5) {
+                long time = now + delay(random);
+                Entry entry = new Entry(id, time);
+                Entry twin = new Entry(id++, time);
+                wheel.add(entry);
+                tree.add(twin);
+                live.add(entry);
+                twins.add(twin);
+            } else if (op < 7 && !live.isEmpty()) {
+                int n = random.nextInt(live.size());
+                wheel.remove(live.remove(n));
+                tree.remove(twins.remove(n));
+            } else if (op < 9) {
+                now += delay(random);
+                polled += pollAndCompare(wheel, tree, now, live, twins);
+            } else if (random.nextInt(4) == 0) {
+                // the clock steps backward; entries after the new time are no longer due
+                now -= delay(random);
+                polled += pollAndCompare(wheel, tree, now, live, twins);
+            } else {
+                List<TimerEntry> fromWheel = new ArrayList<TimerEntry>();
+                List<TimerEntry> fromTree = new ArrayList<TimerEntry>();
+                wheel.removeAll(fromWheel, now);
+                tree.removeAll(fromTree, now);
+                check(ids(fromWheel).equals(ids(fromTree)), "removeAll differs at " + i);
+                wheel.addAll(fromWheel);
+                tree.addAll(fromTree);
+            }
+            check(wheel.size() == tree.size(), "size differs at " + i);
+            check(wheel.size() == 0 || wheel.nextTime() <= tree.nextTime(),
+                    "nextTime later than earliest entry at " + i);
+        }
+        polled += pollAndCompare(wheel, tree, Long.MAX_VALUE - 1, live, twins);
+        check(wheel.size() == 0 && live.isEmpty(), "entries left over");
+        System.out.println("Polled: " + polled);
+        System.out.println("OK");
+    }
+
+    /** mostly short delays, some long enough to reach the coarser wheels */
+    private static long delay(Random random) {
+        switch (random.nextInt(4)) {
+            case 0: return random.nextInt(1000);
+            case 1: return random.nextInt(60000);
+            case 2: return random.nextInt(86400000);
+            default: return (long) random.nextInt(Integer.MAX_VALUE) * 32;
+        }
+    }
+
+    private static int pollAndCompare(TimerQueue wheel, TimerQueue tree, long now,
+            List<Entry> live, List<Entry> twins) {
+        List<TimerEntry> fromWheel = new ArrayList<TimerEntry>();
+        List<TimerEntry> fromTree = new ArrayList<TimerEntry>();
+        TimerEntry entry;
+        while (null != (entry = wheel.poll(now))) {
+            check(entry.getTime() <= now, "entry polled early");
+            fromWheel.add(entry);
+        }
+        while (null != (entry = tree.poll(now))) {
+            fromTree.add(entry);
+        }
+        check(ids(fromWheel).equals(ids(fromTree)), "due entries differ at " + now);
+        live.removeAll(fromWheel);
+        twins.removeAll(fromTree);
+        return fromWheel.size();
+    }
+
+    private static Set<Long> ids(List<TimerEntry> entries) {
+        Set<Long> ids = new HashSet<Long>();
+        for (TimerEntry entry : entries) {
+            ids.add(entry.id);
+        }
+        return ids;
+    }
+
+    private static class Entry extends TimerEntry {
+        private final long time;
+
+        Entry(long id, long time) {
+            super(id);
+            this.time = time;
+        }
+
+        @Override
+        long getTime() {
+            return time;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2002 John Vasileff
+ *
+ * Permission  is  hereby  granted,  free of  charge,  to  any  person
+ * obtaining  a copy  of  this software  and associated  documentation
+ * files   (the  "Software"),   to  deal   in  the   Software  without
+ * restriction, including without limitation  the rights to use, copy,
+ * modify, merge, publish, distribute,  sublicense, and/or sell copies
+ * of the  Software, and  to permit  persons to  whom the  Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The  above copyright  notice and  this permission  notice shall  be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE  SOFTWARE  IS  PROVIDED  "AS   IS",  WITHOUT  WARRANTY  OF  ANY
+ * KIND,  EXPRESS  OR  IMPLIED,  INCLUDING  BUT  NOT  LIMITED  TO  THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES  OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT,  TORT OR OTHERWISE, ARISING FROM, OUT  OF OR IN
+ * CONNECTION WITH  THE SOFTWARE OR THE  USE OR OTHER DEALINGS  IN THE
+ * SOFTWARE.
+ */
+
+package org.anodyneos.jse;
+
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ *  <code>TimerQueue</code> backed by a <code>TreeSet</code>.  Add, remove and
+ *  poll are O(log n).
+ */
+final class TreeTimerQueue implements TimerQueue {
+
+    private final TreeSet<TimerEntry> entries = new TreeSet<TimerEntry>();
+
+    @Override
+    public void add(TimerEntry entry) {
+        entries.add(entry);
+    }
+
+    /**
+     *  Adds each entry in turn, even into an empty queue; O(m log(n + m))
+     *  for m new entries.
+     */
+    @Override
+    public void addAll(List<? extends TimerEntry> newEntries) {
+        entries.addAll(newEntries);
+    }
+
+    @Override
+    public void remove(TimerEntry entry) {
+        entries.remove(entry);
+    }
+
+    @Override
+    public void removeAll(List<? super TimerEntry> into, long now) {
+        into.addAll(entries);
+        entries.clear();
+    }
+
+    @Override
+    public int size() {
+        return entries.size();
+    }
+
+    @Override
+    public TimerEntry poll(long now) {
+        if (entries.isEmpty() || entries.first().getTime() > now) {
+            return null;
+        } else {
+            return entries.pollFirst();
+        }
+    }
+
+    @Override
+    public long nextTime() {
+        if (entries.isEmpty()) {
+            return Long.MAX_VALUE;
+        } else {
+            return entries.first().getTime();
+        }
+    }
+
+}
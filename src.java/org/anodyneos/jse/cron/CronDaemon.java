@@ -27,8 +27,11 @@ package org.anodyneos.jse.cron;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.Iterator;
+import java.util.List;
 import java.util.TimeZone;
 import java.util.UUID;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import javax.xml.XMLConstants;
 import javax.xml.bind.JAXBContext;
@@ -43,9 +46,13 @@ import javax.xml.transform.stream.StreamSource;
 import javax.xml.validation.Schema;
 import javax.xml.validation.SchemaFactory;
 
+import org.anodyneos.jse.JseClock;
 import org.anodyneos.jse.JseDateAwareJob;
 import org.anodyneos.jse.JseException;
+import org.anodyneos.jse.JseRunner;
+import org.anodyneos.jse.JseExtendedSchedule;
 import org.anodyneos.jse.JseTimerService;
+import org.anodyneos.jse.JseTimerSpec;
 import org.anodyneos.jse.cron.config.Config;
 import org.anodyneos.jse.cron.config.Job;
 import org.anodyneos.jse.cron.config.Property;
@@ -62,7 +69,22 @@ public class CronDaemon {
 
     private ArrayList<JseTimerService> timerServices = new ArrayList<JseTimerService>();
 
+    /** milliseconds main() gives running jobs to finish on JVM shutdown */
+    private long shutdownTimeout;
+
+    /** runner shared by all job groups; null if each has its own */
+    private JseRunner sharedRunner;
+
     public CronDaemon(InputSource source) throws JseException {
+        this(source, JseClock.SYSTEM);
+    }
+
+    /**
+     *  @param clock Source of time for all job groups, such as a
+     *  <code>JseVirtualClock</code> to replay a schedule faster than real
+     *  time.
+     */
+    public CronDaemon(InputSource source, JseClock clock) throws JseException {
 
         Schedule schedule;
 
@@ -128,6 +150,23 @@ public class CronDaemon {
 
         TimeZone defaultTimeZone;
 
+        shutdownTimeout = schedule.getShutdownTimeout();
+
+        if (schedule.isSetSharedRunner() && schedule.isSharedRunner()) {
+            sharedRunner = new JseRunner();
+            sharedRunner.setName("CronDaemon-runner");
+            if (schedule.isSetMaxConcurrent()) {
+                sharedRunner.setMaxConcurrent(schedule.getMaxConcurrent());
+            } else {
+                // bounded, so the groups' weights decide who runs
+                sharedRunner.setMaxConcurrent(Runtime.getRuntime().availableProcessors());
+            }
+            if (schedule.isSetPoolSize()) {
+                sharedRunner.setPoolSize(schedule.getPoolSize());
+            }
+            sharedRunner.start();
+        }
+
         if(schedule.isSetTimeZone()) {
             defaultTimeZone = getTimeZone(schedule.getTimeZone());
         } else {
@@ -193,10 +232,20 @@ public class CronDaemon {
         for(org.anodyneos.jse.cron.config.JobGroup jobGroup : schedule.getJobGroup()) {
 
             String jobGroupName;
-            JseTimerService service = new JseTimerService();
-
-            timerServices.add(service);
+            JseTimerService service;
+            int queueType = JseTimerService.QUEUE_TREE;
+            boolean lockFree = false;
+            int shards = 1;
 
+            if (jobGroup.isSetTimerQueue() && "timing-wheel".equals(jobGroup.getTimerQueue())) {
+                queueType = JseTimerService.QUEUE_TIMING_WHEEL;
+            }
+            if (jobGroup.isSetLockFree()) {
+                lockFree = jobGroup.isLockFree();
+            }
+            if (jobGroup.isSetShards()) {
+                shards = jobGroup.getShards();
+            }
 
             if (jobGroup.isSetName()) {
                 jobGroupName = jobGroup.getName();
@@ -204,9 +253,67 @@ public class CronDaemon {
                 jobGroupName = UUID.randomUUID().toString();
             }
 
+            if (null != sharedRunner) {
+                checkNoRunnerSettings(jobGroup, jobGroupName);
+                service = new JseTimerService(queueType, lockFree, shards, clock,
+                        sharedRunner.createGroup(jobGroupName, jobGroup.getWeight(),
+                                jobGroup.getMinShare()));
+            } else {
+                service = new JseTimerService(queueType, lockFree, shards, clock);
+            }
+
+            timerServices.add(service);
+
             if(jobGroup.isSetMaxConcurrent()) {
                 service.setMaxConcurrent(jobGroup.getMaxConcurrent());
+            } else if (null != sharedRunner) {
+                // same default as a runner of the group's own
+                service.setMaxConcurrent(JseRunner.DEFAULT_MAX_CONCURRENT);
+            }
+            if (jobGroup.isSetClockJumpPolicy() && "reschedule".equals(jobGroup.getClockJumpPolicy())) {
+                service.setClockJumpPolicy(JseTimerService.CLOCK_JUMP_RESCHEDULE);
+            }
+            if ("priority".equals(jobGroup.getQueueOrder())) {
+                service.setQueueOrder(JseRunner.ORDER_PRIORITY);
+            } else if ("deadline".equals(jobGroup.getQueueOrder())) {
+                service.setQueueOrder(JseRunner.ORDER_DEADLINE);
+            }
+            if (jobGroup.isSetQueueCapacity()) {
+                service.setQueueCapacity(jobGroup.getQueueCapacity());
+            }
+            if ("drop-oldest".equals(jobGroup.getOverflowPolicy())) {
+                service.setOverflowPolicy(JseRunner.OVERFLOW_DROP_OLDEST);
+            } else if ("block-scheduler".equals(jobGroup.getOverflowPolicy())) {
+                service.setOverflowPolicy(JseRunner.OVERFLOW_BLOCK);
+            } else if ("caller-runs".equals(jobGroup.getOverflowPolicy())) {
+                service.setOverflowPolicy(JseRunner.OVERFLOW_CALLER_RUNS);
             }
+            if (jobGroup.isSetClockJumpThreshold()) {
+                service.setClockJumpThreshold(jobGroup.getClockJumpThreshold());
+            }
+            if (jobGroup.isSetPoolSize()) {
+                service.setPoolSize(jobGroup.getPoolSize());
+            }
+            if (jobGroup.isSetKeepAlive()) {
+                service.setKeepAlive(jobGroup.getKeepAlive(), TimeUnit.MILLISECONDS);
+            }
+            if (jobGroup.isSetThreadFactory()) {
+                service.setThreadFactory(newThreadFactory(jobGroup.getThreadFactory()));
+            }
+            if (jobGroup.isSetVirtualThreads() && jobGroup.isVirtualThreads()) {
+                if (!service.setVirtualThreads(true)) {
+                    log.warn("Virtual threads not supported by this JVM; job group "
+                            + jobGroup.getName() + " uses platform threads");
+                }
+            }
+            if (jobGroup.isSetForkJoinParallelism() && jobGroup.getForkJoinParallelism() != 0) {
+                if (!service.setForkJoin(jobGroup.getForkJoinParallelism())) {
+                    log.warn("ForkJoinPool not supported by this JVM; job group "
+                            + jobGroup.getName() + " uses its run queue");
+                }
+            }
+
+            List<JseTimerSpec> specs = new ArrayList<JseTimerSpec>();
 
             for (Job job : jobGroup.getJob()) {
 
@@ -230,14 +337,28 @@ public class CronDaemon {
                     notAfter = job.getNotAfter().toGregorianCalendar(jobTimeZone, null, null).getTime();
                 }
 
+                int misfirePolicy = JseExtendedSchedule.MISFIRE_FIRE_ALL;
+                if ("fire-once-now".equals(job.getMisfirePolicy())) {
+                    misfirePolicy = JseExtendedSchedule.MISFIRE_FIRE_ONCE_NOW;
+                } else if ("fire-latest-only".equals(job.getMisfirePolicy())) {
+                    misfirePolicy = JseExtendedSchedule.MISFIRE_FIRE_LATEST_ONLY;
+                } else if ("skip-if-late".equals(job.getMisfirePolicy())) {
+                    misfirePolicy = JseExtendedSchedule.MISFIRE_SKIP_IF_LATE;
+                }
+
                 CronSchedule cs = new CronSchedule(
                         job.getSchedule(),
                         jobTimeZone,
                         job.getMaxIterations(),
                         job.getMaxQueue(),
                         notBefore,
-                        notAfter);
-
+                        notAfter,
+                        misfirePolicy,
+                        job.getMisfireThreshold(),
+                        job.getSlack(),
+                        job.getPriority(),
+                        job.getDeadline(),
+                        job.getMaxConcurrent());
 
                 obj = springHelper.getBean(job.getBeanRef());
                 log.info("Adding job " + jobGroup.getName() + "/" + job.getName() + " using bean " + job.getBeanRef());
@@ -245,13 +366,15 @@ public class CronDaemon {
                     ((CronJob) obj).setCronContext(new CronContext(jobGroupName, job.getName(), cs));
                 }
                 if (obj instanceof JseDateAwareJob) {
-                    service.createTimer((JseDateAwareJob) obj, cs);
+                    specs.add(new JseTimerSpec((JseDateAwareJob) obj, cs));
                 } else if (obj instanceof Runnable) {
-                    service.createTimer((Runnable) obj, cs);
+                    specs.add(new JseTimerSpec((Runnable) obj, cs));
                 } else {
                     throw new JseException("Job must implement Runnable or JseDateAwareJob");
                 }
             }
+
+            service.createTimers(specs);
         }
     }
 
@@ -264,10 +387,67 @@ public class CronDaemon {
         }
     }
 
+    /**
+     *  Stops every job group from firing, then waits for their queued and
+     *  running jobs until <code>timeout</code> has passed in total.  Jobs
+     *  left at the deadline are abandoned and logged.
+     *
+     *  @return The number of runs abandoned.
+     */
+    public int shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (JseTimerService service : timerServices) {
+            service.shutdown();
+        }
+        int abandoned = 0;
+        for (JseTimerService service : timerServices) {
+            int count = service.shutdown(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            if (count > 0) {
+                log.warn("Abandoned " + count + " job runs of service " + service.getName());
+            }
+            abandoned += count;
+        }
+        if (null != sharedRunner) {
+            // empty by now unless jobs were queued to it directly
+            abandoned += sharedRunner.shutdown(Math.max(0, deadline - System.nanoTime()),
+                    TimeUnit.NANOSECONDS);
+        }
+        return abandoned;
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (JseTimerService service : timerServices) {
+            if (!service.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+                return false;
+            }
+        }
+        if (null != sharedRunner) {
+            return sharedRunner.awaitTermination(Math.max(0, deadline - System.nanoTime()),
+                    TimeUnit.NANOSECONDS);
+        }
+        return true;
+    }
+
+    public long getShutdownTimeout() {
+        return shutdownTimeout;
+    }
+
     public static void main(String[] args) throws Exception {
         try {
             InputSource source = new InputSource(args[0]);
-            CronDaemon server = new CronDaemon(source);
+            final CronDaemon server = new CronDaemon(source);
+            Runtime.getRuntime().addShutdownHook(new Thread("CronDaemon-shutdown") {
+                @Override
+                public void run() {
+                    try {
+                        log.info("Shutting down; waiting up to " + server.getShutdownTimeout() + "ms for jobs");
+                        server.shutdown(server.getShutdownTimeout(), TimeUnit.MILLISECONDS);
+                    } catch (InterruptedException e) {
+                        log.warn("Interrupted while waiting for jobs to finish");
+                    }
+                }
+            });
             server.start();
         } catch (Exception e) {
             log.fatal(e.getMessage(), e);
@@ -275,6 +455,51 @@ public class CronDaemon {
         }
     }
 
+    /**
+     *  Instantiates a <code>ThreadFactory</code> by class name using its
+     *  no-argument constructor.
+     */
+    protected ThreadFactory newThreadFactory(String className) throws JseException {
+        try {
+            Class<?> cls = Class.forName(className, true,
+                    Thread.currentThread().getContextClassLoader());
+            return (ThreadFactory) cls.newInstance();
+        } catch (Exception e) {
+            throw new JseException("Cannot create thread factory: " + className, e);
+        }
+    }
+
+    /**
+     *  Rejects attributes that configure a job group's own runner, since
+     *  with <code>shared-runner</code> set they would change the runner of
+     *  every group instead.
+     */
+    private void checkNoRunnerSettings(org.anodyneos.jse.cron.config.JobGroup jobGroup,
+            String jobGroupName) throws JseException {
+        String attribute = null;
+        if (jobGroup.isSetPoolSize()) {
+            attribute = "pool-size";
+        } else if (jobGroup.isSetKeepAlive()) {
+            attribute = "keep-alive";
+        } else if (jobGroup.isSetThreadFactory()) {
+            attribute = "thread-factory";
+        } else if (jobGroup.isSetVirtualThreads()) {
+            attribute = "virtual-threads";
+        } else if (jobGroup.isSetForkJoinParallelism()) {
+            attribute = "fork-join-parallelism";
+        } else if (jobGroup.isSetQueueOrder()) {
+            attribute = "queue-order";
+        } else if (jobGroup.isSetQueueCapacity()) {
+            attribute = "queue-capacity";
+        } else if (jobGroup.isSetOverflowPolicy()) {
+            attribute = "overflow-policy";
+        }
+        if (null != attribute) {
+            throw new JseException("Cannot set " + attribute + " for job group "
+                    + jobGroupName + " when shared-runner is set.");
+        }
+    }
+
     protected TimeZone getTimeZone(String tzs) throws JseException {
         String[] allTZ = TimeZone.getAvailableIDs();
         TimeZone tz = null;
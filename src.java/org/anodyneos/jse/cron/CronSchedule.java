@@ -31,7 +31,7 @@ import java.util.GregorianCalendar;
 import java.util.HashMap;
 import java.util.TimeZone;
 
-import org.anodyneos.jse.JseSchedule;
+import org.anodyneos.jse.JseExtendedSchedule;
 
 /**
  *  @TODO The schedule should have a timeZone, not the passed-in dates.
@@ -75,12 +75,20 @@ import org.anodyneos.jse.JseSchedule;
  *
  *  @version $Id: CronSchedule.java,v 1.2 2004-05-13 03:42:03 jvas Exp $
  */
-public final class CronSchedule implements JseSchedule {
+public final class CronSchedule implements JseExtendedSchedule {
 
     private int numIterations;
     private int maxQueue;
+    private int misfirePolicy;
+    private long misfireThreshold;
+    private long slack;
+    private int priority;
+    private long deadline;
+    private int maxConcurrent;
     private Date notBeforeDate;
     private Date notAfterDate;
+    private long notBeforeMillis = Long.MIN_VALUE;
+    private long notAfterMillis = Long.MAX_VALUE;
 
     private static final HashMap<String, Integer> dayMap;
     private static final HashMap<String, Integer> monthMap;
@@ -129,7 +137,7 @@ public final class CronSchedule implements JseSchedule {
 
     private TimeZone timeZone;
     private Calendar dummyCal;
-    private CalcNext calc = new CalcNext();
+    private CalcNext calc;
 
     /**
      *  Creates a CronSchedule and parses the schedule string.
@@ -147,16 +155,68 @@ public final class CronSchedule implements JseSchedule {
      */
     public CronSchedule(String scheduleString, TimeZone tz, int numIterations, int maxQueue,
             Date notBeforeDate, Date notAfterDate) throws CronParseException {
+        this(scheduleString, tz, numIterations, maxQueue, notBeforeDate, notAfterDate,
+                MISFIRE_FIRE_ALL, DEFAULT_MISFIRE_THRESHOLD, 0);
+    }
+
+    /**
+     *  Creates a CronSchedule and parses the schedule string.
+     *
+     *  @param scheduleString Schedule string as described above.
+     *  @param misfirePolicy One of the <code>JseExtendedSchedule.MISFIRE_</code>
+     *  constants.
+     *  @param misfireThreshold Milliseconds a run may be late before the
+     *  misfire policy applies, measured when the run is handed to the
+     *  runner.  The other constructors use
+     *  <code>JseExtendedSchedule.DEFAULT_MISFIRE_THRESHOLD</code>.
+     *  @param slack Milliseconds a run may be delayed to share a wakeup with
+     *  other timers.
+     */
+    public CronSchedule(String scheduleString, TimeZone tz, int numIterations, int maxQueue,
+            Date notBeforeDate, Date notAfterDate, int misfirePolicy, long misfireThreshold,
+            long slack) throws CronParseException {
+        this(scheduleString, tz, numIterations, maxQueue, notBeforeDate, notAfterDate,
+                misfirePolicy, misfireThreshold, slack, 0, 0, -1);
+    }
+
+    /**
+     *  Creates a CronSchedule and parses the schedule string.
+     *
+     *  @param scheduleString Schedule string as described above.
+     *  @param priority Priority of runs in the runner's queue.  The other
+     *  constructors use 0.
+     *  @param deadline Milliseconds after its fire time a run should start,
+     *  or 0 for none.  The other constructors use 0.
+     *  @param maxConcurrent How many runs may run at once; 1 keeps runs
+     *  from overlapping.  The other constructors use -1, for no limit
+     *  beyond the job group's.
+     */
+    public CronSchedule(String scheduleString, TimeZone tz, int numIterations, int maxQueue,
+            Date notBeforeDate, Date notAfterDate, int misfirePolicy, long misfireThreshold,
+            long slack, int priority, long deadline, int maxConcurrent) throws CronParseException {
         this.numIterations = numIterations;
         this.maxQueue = maxQueue;
+        this.misfirePolicy = misfirePolicy;
+        this.misfireThreshold = misfireThreshold;
+        this.slack = slack;
+        this.priority = priority;
+        this.deadline = deadline;
+        this.maxConcurrent = maxConcurrent;
         this.notBeforeDate = notBeforeDate;
         this.notAfterDate = notAfterDate;
+        if (null != notBeforeDate) {
+            this.notBeforeMillis = notBeforeDate.getTime();
+        }
+        if (null != notAfterDate) {
+            this.notAfterMillis = notAfterDate.getTime();
+        }
 
         this.scheduleString = scheduleString;
 
         this.timeZone = tz;
         this.dummyCal = new GregorianCalendar(timeZone);
         this.dummyCal.setLenient(false);
+        this.calc = new CalcNext();
 
         ArrayList<String> l = split(scheduleString);
 
@@ -175,17 +235,40 @@ public final class CronSchedule implements JseSchedule {
 
     @Override
     public final Date getNextTimeout(Date start) {
-        if (null != getNotBefore() && start.before(getNotBefore())) {
-            start = getNotBefore();
+        long next = getNextTimeoutMillis(start.getTime());
+        return NEVER == next ? null : new Date(next);
+    }
+
+    @Override
+    public final long getNextTimeoutMillis(long startMillis) {
+        if (startMillis < notBeforeMillis) {
+            startMillis = notBeforeMillis;
         }
-        Date next = calc.findNext(start);
-        if (null != getNotAfter() && next.after(getNotAfter())) {
-            return null;
+        long next = calc.findNext(startMillis);
+        if (next > notAfterMillis) {
+            return NEVER;
         } else {
             return next;
         }
     }
 
+    @Override
+    public final long[] getNextTimeouts(long startMillis, int n) {
+        long[] timeouts = new long[n];
+        int count = 0;
+        long next = startMillis;
+        while (count < n) {
+            next = getNextTimeoutMillis(next);
+            if (NEVER == next) {
+                long[] fewer = new long[count];
+                System.arraycopy(timeouts, 0, fewer, 0, count);
+                return fewer;
+            }
+            timeouts[count++] = next++;
+        }
+        return timeouts;
+    }
+
     public final Date getNotBefore() {
         return notBeforeDate;
     }
@@ -200,6 +283,30 @@ public final class CronSchedule implements JseSchedule {
     public final int getMaxQueue() {
         return maxQueue;
     }
+    @Override
+    public final int getMisfirePolicy() {
+        return misfirePolicy;
+    }
+    @Override
+    public final long getMisfireThreshold() {
+        return misfireThreshold;
+    }
+    @Override
+    public final long getSlack() {
+        return slack;
+    }
+    @Override
+    public final int getPriority() {
+        return priority;
+    }
+    @Override
+    public final long getDeadline() {
+        return deadline;
+    }
+    @Override
+    public final int getMaxConcurrent() {
+        return maxConcurrent;
+    }
 
     /**
      *  Returns schedule string that was passed to the constructor.
@@ -240,8 +347,9 @@ public final class CronSchedule implements JseSchedule {
     }
 
     /**
-     *  Returns a Date for the given params or null if no such time exists due
-     *  to daylight savings times or other calendar anomalies.
+     *  Returns the time in millis for the given params or <code>NEVER</code>
+     *  if no such time exists due to daylight savings times or other calendar
+     *  anomalies.
      *
      *  Daylight savings time issues:
      *
@@ -252,9 +360,9 @@ public final class CronSchedule implements JseSchedule {
      *
      *  For its intended usage, niether treatment is desired.  To handle this,
      *  after setting the calendar, the original specs are checked.  If they do
-     *  not match what was intended, null is returned.
+     *  not match what was intended, <code>NEVER</code> is returned.
      */
-    private synchronized Date newDate(
+    private synchronized long newTime(
             int year, int dayOfYear, int hour, int minute, int second) {
 
         dummyCal.clear();
@@ -271,9 +379,9 @@ public final class CronSchedule implements JseSchedule {
                 &&  dummyCal.get(Calendar.MINUTE) == minute
                 &&  dummyCal.get(Calendar.SECOND) == second
                 &&  dummyCal.get(Calendar.MILLISECOND) == 0) {
-            return dummyCal.getTime();
+            return dummyCal.getTimeInMillis();
         } else {
-            return null;
+            return NEVER;
         }
     }
 
@@ -546,12 +654,12 @@ public final class CronSchedule implements JseSchedule {
     }
 
     /**
-     *  CalcNext can calculate the Date for getNextTimeout(Date start).  One
+     *  CalcNext can calculate the time for getNextTimeoutMillis(long start).  One
      *  instance should exist for each schedule and the only method called
      *  should be findNext() which is synchronized.
      */
     private final class CalcNext {
-        private Calendar notBefore;
+        private Calendar notBefore = new GregorianCalendar(timeZone);
         private long nbMillis;
         private int nbYear;
         private int nbMonth;
@@ -566,18 +674,18 @@ public final class CronSchedule implements JseSchedule {
         }
 
         /**
-         *  Finds the next Date in the schedule greater or equal to the given
-         *  Date.  Note: this method does not check notBefore, notAfter, and
+         *  Finds the next time in the schedule greater or equal to the given
+         *  time.  Note: this method does not check notBefore, notAfter, and
          *  iterations.
          *
-         *  @return the next Date or null if one doesn't exist.  CronSchedules
-         *  will generally always have next Dates, the exception being a
-         *  schedule that only specifies a Date that doesn't exist such as Feb
-         *  30th.
+         *  @return the next time or <code>NEVER</code> if one doesn't exist.
+         *  CronSchedules will generally always have next times, the exception
+         *  being a schedule that only specifies a Date that doesn't exist such
+         *  as Feb 30th.
          */
-        private synchronized Date findNext(Date startDate) {
-            Date result;
-            nbMillis = startDate.getTime();
+        private synchronized long findNext(long startMillis) {
+            long result;
+            nbMillis = startMillis;
             // round up to nearest second
             long extraMillis = nbMillis % (1000);
             if (extraMillis > 0) {
@@ -585,8 +693,7 @@ public final class CronSchedule implements JseSchedule {
             } else if (extraMillis < 0) {
                 nbMillis = nbMillis - extraMillis;
             }
-            notBefore = new GregorianCalendar(timeZone);
-            notBefore.setTime(new Date(nbMillis)); // setTimeInMillis(nbMillis); in jdk1.4
+            notBefore.setTimeInMillis(nbMillis);
 
             nbYear = notBefore.get(Calendar.YEAR);
             nbMonth = notBefore.get(Calendar.MONTH);
@@ -607,15 +714,15 @@ public final class CronSchedule implements JseSchedule {
             }
 
             result = searchYear(checkPartial, nbYear);
-            if (result == null && checkPartial) {
+            if (result == NEVER && checkPartial) {
                 // try next full year
                 result = searchYear(false, nbYear + 1);
             }
             return result;
         }
 
-        private Date searchYear(boolean checkPartial, int year) {
-            Date next = null;
+        private long searchYear(boolean checkPartial, int year) {
+            long next = NEVER;
             int numTried;
             int month;
 
@@ -627,7 +734,7 @@ public final class CronSchedule implements JseSchedule {
                 numTried = 1;
             }
 
-            for( ; next == null && month < 12 && numTried < 2; month++) {
+            for( ; next == NEVER && month < 12 && numTried < 2; month++) {
                 if(calendarMonth(month)) {
                     // try this month
                     next = searchMonth(checkPartial, year, month);
@@ -638,8 +745,8 @@ public final class CronSchedule implements JseSchedule {
             return next;
         }
 
-        private Date searchMonth(boolean checkPartial, int year, int month) {
-            Date next = null;
+        private long searchMonth(boolean checkPartial, int year, int month) {
+            long next = NEVER;
             int numTried;
             int day;
 
@@ -664,7 +771,7 @@ public final class CronSchedule implements JseSchedule {
             int dayOfFirstDayOfMonth = dayOfFirstDayOfMonth(year, month);
             int refDayOfYear = dayOfYear(year, month, 1);
 
-            for( ; next == null && day <= lastDay && numTried < 2; day++) {
+            for( ; next == NEVER && day <= lastDay && numTried < 2; day++) {
                 boolean doit = false;
                 if(allDaysOfWeek() && allDaysOfMonth()) {
                     // all days match
@@ -688,8 +795,8 @@ public final class CronSchedule implements JseSchedule {
             return next;
         }
 
-        private Date searchDayOfYear(boolean checkPartial, int year, int dayOfYear) {
-            Date next = null;
+        private long searchDayOfYear(boolean checkPartial, int year, int dayOfYear) {
+            long next = NEVER;
             int numTried;
             int hour;
 
@@ -701,7 +808,7 @@ public final class CronSchedule implements JseSchedule {
                 numTried = 1;
             }
 
-            for( ; next == null && hour < 24 && numTried < 2; hour++) {
+            for( ; next == NEVER && hour < 24 && numTried < 2; hour++) {
                 if(calendarHour(hour)) {
                     // try this hour
                     next = searchHour(checkPartial, year, dayOfYear, hour);
@@ -712,8 +819,8 @@ public final class CronSchedule implements JseSchedule {
             return next;
         }
 
-        private Date searchHour(boolean checkPartial, int year, int dayOfYear, int hour) {
-            Date next = null;
+        private long searchHour(boolean checkPartial, int year, int dayOfYear, int hour) {
+            long next = NEVER;
             int numTried;
             int minute;
 
@@ -725,7 +832,7 @@ public final class CronSchedule implements JseSchedule {
                 numTried = 1;
             }
 
-            for( ; next == null && minute < 60 && numTried < 2; minute++) {
+            for( ; next == NEVER && minute < 60 && numTried < 2; minute++) {
                 if(calendarMinute(minute)) {
                     // try this minute
                     next = searchMinute(checkPartial, year, dayOfYear, hour, minute);
@@ -736,8 +843,8 @@ public final class CronSchedule implements JseSchedule {
             return next;
         }
 
-        private Date searchMinute(boolean checkPartial, int year, int dayOfYear, int hour, int minute) {
-            Date next = null;
+        private long searchMinute(boolean checkPartial, int year, int dayOfYear, int hour, int minute) {
+            long next = NEVER;
             int numTried;
             int second;
 
@@ -749,7 +856,7 @@ public final class CronSchedule implements JseSchedule {
                 numTried = 1;
             }
 
-            for( ; next == null && second < 60 && numTried < 2; second++) {
+            for( ; next == NEVER && second < 60 && numTried < 2; second++) {
                 if(calendarSecond(second)) {
                     // try this second
                     next = searchSecond(checkPartial, year, dayOfYear, hour, minute, second);
@@ -760,10 +867,10 @@ public final class CronSchedule implements JseSchedule {
             return next;
         }
 
-        private Date searchSecond(boolean checkPartial, int year, int dayOfYear, int hour, int minute, int second) {
-            Date next = newDate(year, dayOfYear, hour, minute, second);
-            if (null == next || (checkPartial && next.getTime() < nbMillis)) {
-                return null;
+        private long searchSecond(boolean checkPartial, int year, int dayOfYear, int hour, int minute, int second) {
+            long next = newTime(year, dayOfYear, hour, minute, second);
+            if (NEVER == next || (checkPartial && next < nbMillis)) {
+                return NEVER;
             } else {
                 return next;
             }